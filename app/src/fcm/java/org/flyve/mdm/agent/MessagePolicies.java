@@ -10,7 +10,7 @@ import org.flyve.mdm.agent.data.database.ApplicationData;
 import org.flyve.mdm.agent.data.database.FileData;
 import org.flyve.mdm.agent.data.database.MqttData;
 import org.flyve.mdm.agent.data.database.PoliciesData;
-import org.flyve.mdm.agent.policies.PoliciesAsyncTask;
+import org.flyve.mdm.agent.policies.TopicRouter;
 import org.flyve.mdm.agent.receivers.FlyveAdminReceiver;
 import org.flyve.mdm.agent.ui.MDMAgent;
 import org.flyve.mdm.agent.utils.ConnectionHTTP;
@@ -67,38 +67,8 @@ public class MessagePolicies {
             return;
         }
 
-        //Command/Policies
-        new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.POLICIES, topic, message);
-
-        // Command/Ping
-        if(topic.toLowerCase().contains("ping")) {
-            new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.PING, topic,message);
-        }
-
-        // Command/Geolocate
-        if(topic.toLowerCase().contains("geolocate")) {
-            new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.GEOLOCATE, topic,message);
-        }
-
-        // Command/Inventory
-        if(topic.toLowerCase().contains("inventory")) {
-            new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.INVENTORY, topic,message);
-        }
-
-        // Command/Wipe
-        if(topic.toLowerCase().contains("wipe")) {
-            new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.WIPE, topic,message);
-        }
-
-        // Command/Lock
-        if(topic.toLowerCase().contains("lock")) {
-            new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.LOCK, topic,message);
-        }
-
-        // Command/Unenroll
-        if(topic.toLowerCase().contains("unenroll")) {
-            new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.UNENROLL, topic,message);
-        }
+        // Command/Ping, Command/Lock, Policy/... one action for the topic
+        TopicRouter.dispatch(context, topic, message);
     }
 
 }
@@ -30,6 +30,9 @@ import android.os.Looper;
 import org.flyve.mdm.agent.R;
 import org.flyve.mdm.agent.core.CommonErrorType;
 import org.flyve.mdm.agent.core.Routes;
+import org.flyve.mdm.agent.core.http.Deadline;
+import org.flyve.mdm.agent.core.http.JsonFields;
+import org.flyve.mdm.agent.core.http.SessionManager;
 import org.flyve.mdm.agent.data.database.MqttData;
 import org.flyve.mdm.agent.utils.ConnectionHTTP;
 import org.flyve.mdm.agent.utils.FlyveLog;
@@ -37,9 +40,10 @@ import org.flyve.mdm.agent.utils.Helpers;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.HashMap;
 
-import static org.flyve.mdm.agent.utils.ConnectionHTTP.getSyncWebData;
+import static org.flyve.mdm.agent.utils.ConnectionHTTP.getSyncWebDataFields;
 
 public class EnrollmentHelper {
 
@@ -119,33 +123,49 @@ public class EnrollmentHelper {
      * Get session token
      */
     public void getActiveSessionToken(final EnrollCallBack callback) {
+        getActiveSessionToken(Deadline.after(Routes.getBudget(Routes.ROUTE_INIT_SESSION)), callback);
+    }
+
+    /**
+     * Get session token as the first request of a chain
+     * The token is kept by the SessionManager, the initSession is only done when it expires
+     * or the server refuses it
+     * @param deadline Deadline shared with the requests sent with the session token
+     */
+    public void getActiveSessionToken(final Deadline deadline, final EnrollCallBack callback) {
 
         Thread t = new Thread(new Runnable()
         {
             public void run()
             {
-                JSONObject jsonSession;
-                HashMap<String, String> header = new HashMap();
+                final HashMap<String, String> header = new HashMap();
                 header.put("Authorization", "user_token " + cache.getApiToken());
 
                 try {
                     // STEP 1 get session token
-                    data = getSyncWebData(routes.initSession(cache.getApiToken()), "GET", header);
-
-                    final String errorMessage = manageError(data);
-                    if(!errorMessage.equals("")) {
-                        EnrollmentHelper.runOnUI(new Runnable() {
-                            public void run() {
-                                callback.onError(CommonErrorType.ENROLLMENT_HELPER_INITSESSION, errorMessage);
+                    sessionToken = SessionManager.getInstance().getToken(cache.getApiToken(), new SessionManager.Loader() {
+                        @Override
+                        public String load() throws IOException {
+                            JsonFields session = getSyncWebDataFields(deadline, routes.initSession(cache.getApiToken()), "GET", header, "session_token");
+                            data = session.toString();
+
+                            String errorMessage = manageError(session.getError());
+                            if(!errorMessage.equals("")) {
+                                throw new SessionException(errorMessage);
                             }
-                        });
-                        return;
-                    }
 
-                    jsonSession = new JSONObject(data);
-                    sessionToken = jsonSession.getString("session_token");
+                            return session.getString("session_token");
+                        }
+                    });
                     cache.setSessionToken(sessionToken);
 
+                } catch (final SessionException ex) {
+                    EnrollmentHelper.runOnUI(new Runnable() {
+                        public void run() {
+                            callback.onError(CommonErrorType.ENROLLMENT_HELPER_INITSESSION, ex.getMessage());
+                        }
+                    });
+                    return;
                 } catch (final Exception ex) {
                     FlyveLog.e(this.getClass().getName() + ", getActiveSessionToken", ex.getMessage());
                     EnrollmentHelper.runOnUI(new Runnable() {
@@ -153,6 +173,7 @@ public class EnrollmentHelper {
                             callback.onError(CommonErrorType.ENROLLMENT_HELPER_INITSESSION, context.getString(R.string.wrong_json_format, data, ex.getMessage()));
                         }
                     });
+                    return;
                 }
 
                 // Success
@@ -173,15 +194,15 @@ public class EnrollmentHelper {
             public void run()
             {
                 String profileId = "";
-                JSONObject jsonSession;
                 HashMap<String, String> header = new HashMap();
                 header.put("Authorization", "user_token " + cache.getUserToken());
 
                 try {
                     // STEP 1 get session token
-                    data = getSyncWebData(routes.initSession(cache.getUserToken()), "GET", header);
+                    JsonFields session = getSyncWebDataFields(routes.initSession(cache.getUserToken()), "GET", header, "session_token");
+                    data = session.toString();
 
-                    final String errorMessage = manageError(data);
+                    final String errorMessage = manageError(session.getError());
                     if(!errorMessage.equals("")) {
                         EnrollmentHelper.runOnUI(new Runnable() {
                             public void run() {
@@ -191,8 +212,7 @@ public class EnrollmentHelper {
                         return;
                     }
 
-                    jsonSession = new JSONObject(data);
-                    sessionToken = jsonSession.getString("session_token");
+                    sessionToken = session.getString("session_token");
                     cache.setSessionToken(sessionToken);
 
                 } catch (final Exception ex) {
@@ -212,8 +232,9 @@ public class EnrollmentHelper {
                     header.put(USER_AGENT,FLYVE_MDM);
                     header.put(REFERER,routes.getFullSession());
 
-                    data = getSyncWebData(routes.getFullSession(), "GET", header);
-                    final String errorMessageFullSession = manageError(data);
+                    JsonFields fullSession = getSyncWebDataFields(routes.getFullSession(), "GET", header, "session.plugin_flyvemdm_guest_profiles_id");
+                    data = fullSession.toString();
+                    final String errorMessageFullSession = manageError(fullSession.getError());
                     if(!errorMessageFullSession.equals("")) {
                         EnrollmentHelper.runOnUI(new Runnable() {
                             public void run() {
@@ -223,9 +244,7 @@ public class EnrollmentHelper {
                         return;
                     }
 
-                    JSONObject jsonFullSession = new JSONObject(data);
-                    jsonSession = jsonFullSession.getJSONObject("session");
-                    profileId = jsonSession.getString("plugin_flyvemdm_guest_profiles_id");
+                    profileId = fullSession.getString("session.plugin_flyvemdm_guest_profiles_id");
 
                     cache.setProfileId(profileId);
 
@@ -240,8 +259,9 @@ public class EnrollmentHelper {
 
                 try {
                     // STEP 3 Activated the profile
-                    data = getSyncWebData(routes.changeActiveProfile(profileId), "POST", header);
-                    final String errorActiveProfile = manageError(data);
+                    JsonFields activeProfile = getSyncWebDataFields(routes.changeActiveProfile(profileId), "POST", header);
+                    data = activeProfile.toString();
+                    final String errorActiveProfile = manageError(activeProfile.getError());
                     if(!errorActiveProfile.equals("")) {
                         EnrollmentHelper.runOnUI(new Runnable() {
                             public void run() {
@@ -300,11 +320,11 @@ public class EnrollmentHelper {
                 }
 
                 // Sending the payload to the backend
-                String data = getSyncWebData(routes.pluginFlyvemdmAgent(), input, header);
-                FlyveLog.d("Payload return: " + data);
+                JsonFields agent = getSyncWebDataFields(routes.pluginFlyvemdmAgent(), input, header, "id");
+                FlyveLog.d("Payload return: " + agent);
 
-                if(data.contains("ERROR")){
-                    final String msgError = manageError(data);
+                if(agent.isError()){
+                    final String msgError = manageError(agent.getError());
                     FlyveLog.e(this.getClass().getName() + ", enrollment", msgError + " - Device UUID: " + Helpers.getDeviceUniqueID(context));
 
                     EnrollmentHelper.runOnUI(new Runnable() {
@@ -315,8 +335,7 @@ public class EnrollmentHelper {
                 } else {
                     String agentId;
                     try {
-                        JSONObject jsonAgent = new JSONObject(data);
-                        agentId = jsonAgent.getString("id");
+                        agentId = agent.getString("id");
                     } catch (final Exception ex) {
                         EnrollmentHelper.runOnUI(new Runnable() {
                             public void run() {
@@ -333,10 +352,14 @@ public class EnrollmentHelper {
                     header.put(USER_AGENT,FLYVE_MDM);
                     header.put(REFERER,routes.pluginFlyvemdmAgent());
 
-                    String dataAgent = ConnectionHTTP.getSyncWebData(routes.pluginFlyvemdmAgent(agentId), "GET", header);
+                    JsonFields jsonObject = getSyncWebDataFields(routes.pluginFlyvemdmAgent(agentId), "GET", header,
+                            "broker", "port", "tls", "topic", "mqttpasswd", "certificate", "name",
+                            "computers_id", "id", "entities_id", "plugin_flyvemdm_fleets_id", "api_token");
 
                     try {
-                        JSONObject jsonObject = new JSONObject(dataAgent);
+                        if(jsonObject.isError()) {
+                            throw new IOException(manageError(jsonObject.getError()));
+                        }
 
                         String mbroker = jsonObject.getString("broker");
                         String mport = jsonObject.getString("port");
@@ -395,6 +418,15 @@ public class EnrollmentHelper {
         callback.onSuccess("true");
     }
 
+    /**
+     * Error given by the server to the initSession
+     */
+    private static class SessionException extends IOException {
+        SessionException(String message) {
+            super(message);
+        }
+    }
+
     public interface EnrollCallBack {
         void onSuccess(String data);
         void onError(int type, String error);
@@ -34,6 +34,8 @@ import com.orhanobut.logger.Logger;
 import com.orhanobut.logger.PrettyFormatStrategy;
 
 import org.flyve.mdm.agent.BuildConfig;
+import org.flyve.mdm.agent.core.outbox.OutboxWorker;
+import org.flyve.mdm.agent.policies.DownloadNetworkMonitor;
 import org.flyve.mdm.agent.utils.UtilsCrash;
 
 /**
@@ -79,6 +81,12 @@ public class MDMAgent extends Application {
         }
 
         isDebuggable = true; // ( 0 != ( getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE ) );
+
+        // send the reports left by the previous process
+        OutboxWorker.getInstance(this).wakeUp(true);
+
+        // follow the network for the downloads and start the ones deferred by the previous process
+        DownloadNetworkMonitor.start(this);
     }
 
     /**
@@ -27,11 +27,29 @@ import android.content.Context;
 
 import org.flyve.mdm.agent.data.database.MqttData;
 
+import java.util.List;
+
 /**
  * Content all the routes of the app
  */
 public class Routes {
 
+    // names of the routes used on the http statistics
+    public static final String ROUTE_INIT_SESSION = "initSession";
+    public static final String ROUTE_FULL_SESSION = "getFullSession";
+    public static final String ROUTE_CHANGE_ACTIVE_PROFILE = "changeActiveProfile";
+    public static final String ROUTE_KILL_SESSION = "killSession";
+    public static final String ROUTE_AGENT = "PluginFlyvemdmAgent";
+    public static final String ROUTE_GEOLOCATION = "PluginFlyvemdmGeolocation";
+    public static final String ROUTE_TASKSTATUS_SEARCH = "PluginFlyvemdmTaskstatusSearch";
+    public static final String ROUTE_TASKSTATUS = "PluginFlyvemdmTaskstatus";
+    public static final String ROUTE_FILE = "PluginFlyvemdmFile";
+    public static final String ROUTE_PACKAGE = "PluginFlyvemdmPackage";
+    public static final String ROUTE_OTHER = "other";
+
+    // deadline of initSession + taskstatus search + taskstatus update
+    public static final long TASK_STATUS_BUDGET = 45000;
+
     private String url;
     private MqttData cache;
 
@@ -95,10 +113,42 @@ public class Routes {
         return url + "/search/PluginFlyvemdmTaskstatus/?criteria[0][field]=5&criteria[0][searchtype]=contains&criteria[0][value]="+ agentId +"&criteria[1][field]=6&criteria[1][searchtype]=contains&criteria[1][value]="+ taskId +"&forcedisplay=2";
     }
 
+    /**
+     * Search the taskstatus of several tasks of the agent in one request
+     * Each row has the taskstatus id on the column 2 and the task on the column 6
+     * @param agentId String id of the agent
+     * @param taskIds List with the id of the tasks
+     * @return String url
+     */
+    public String PluginFlyvemdmTaskstatusSearch(String agentId, List<String> taskIds) {
+        StringBuilder search = new StringBuilder(url);
+        search.append("/search/PluginFlyvemdmTaskstatus/?criteria[0][field]=5&criteria[0][searchtype]=contains&criteria[0][value]=").append(agentId);
+        search.append("&criteria[1][link]=AND");
+        for (int i = 0; i < taskIds.size(); i++) {
+            String criteria = "&criteria[1][criteria][" + i + "]";
+            if(i > 0) {
+                search.append(criteria).append("[link]=OR");
+            }
+            search.append(criteria).append("[field]=6");
+            search.append(criteria).append("[searchtype]=equals");
+            search.append(criteria).append("[value]=").append(taskIds.get(i));
+        }
+        search.append("&forcedisplay[0]=2&forcedisplay[1]=6&range=0-").append(taskIds.size() - 1);
+        return search.toString();
+    }
+
     public String PluginFlyvemdmTaskstatus(String taskStatusId) {
         return url + "/PluginFlyvemdmTaskstatus/" + taskStatusId;
     }
 
+    /**
+     * Update several taskstatus with one request, the input is an array
+     * @return String url
+     */
+    public String PluginFlyvemdmTaskstatus() {
+        return url + "/PluginFlyvemdmTaskstatus/";
+    }
+
     public String killSession() {
         return url + "/killSession";
     }
@@ -120,4 +170,50 @@ public class Routes {
     public String pluginFlyvemdmPackage(String fileId) {
         return url + "/PluginFlyvemdmPackage/" + fileId;
     }
+
+    /**
+     * Time budget of one request of the route, after that the worker is released
+     * @param route String one of the ROUTE_ values
+     * @return long milliseconds
+     */
+    public static long getBudget(String route) {
+        if(ROUTE_KILL_SESSION.equals(route)) {
+            return 10000;
+        }
+        if(ROUTE_INIT_SESSION.equals(route) || ROUTE_FULL_SESSION.equals(route) || ROUTE_CHANGE_ACTIVE_PROFILE.equals(route)
+                || ROUTE_GEOLOCATION.equals(route) || ROUTE_TASKSTATUS_SEARCH.equals(route) || ROUTE_TASKSTATUS.equals(route)) {
+            return 15000;
+        }
+        if(ROUTE_FILE.equals(route) || ROUTE_PACKAGE.equals(route)) {
+            // metadata only, the download itself is limited by the read timeout
+            return 20000;
+        }
+        // the enrollment sends the whole inventory
+        return 30000;
+    }
+
+    /**
+     * Get the name of the route from the url
+     * @param url String complete url
+     * @return String one of the ROUTE_ values
+     */
+    public static String getRouteName(String url) {
+        if(url == null) {
+            return ROUTE_OTHER;
+        }
+
+        if(url.contains("/search/PluginFlyvemdmTaskstatus")) {
+            return ROUTE_TASKSTATUS_SEARCH;
+        }
+
+        String[] routes = { ROUTE_INIT_SESSION, ROUTE_FULL_SESSION, ROUTE_CHANGE_ACTIVE_PROFILE, ROUTE_KILL_SESSION,
+                ROUTE_AGENT, ROUTE_GEOLOCATION, ROUTE_TASKSTATUS, ROUTE_FILE, ROUTE_PACKAGE };
+        for (String route : routes) {
+            if(url.contains("/" + route)) {
+                return route;
+            }
+        }
+
+        return ROUTE_OTHER;
+    }
 }
@@ -0,0 +1,453 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Download a large file with several ranged requests at the same time
+ * The chunks are written on their place of a preallocated .part file, the finished chunks are saved
+ * on the checkpoint so an interrupted download only fetches the missing ones
+ * The number of requests in parallel goes up while the throughput grows and down when it drops
+ */
+public class ChunkedDownloader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int MIN_CONCURRENCY = 1;
+    private static final int START_CONCURRENCY = 2;
+    private static final int MAX_CONCURRENCY = 4;
+    private static final int CHUNK_ATTEMPTS = 3;
+    private static final long STOP_MARGIN_MS = 1000;
+    // throughput change needed to move the concurrency
+    private static final double GROW_RATIO = 1.10;
+    private static final double SHRINK_RATIO = 0.80;
+    // weight of the last chunk in the throughput, the older chunks fade out
+    private static final double RECENT_WEIGHT = 0.3;
+
+    private final String url;
+    private final String route;
+    private final Map<String, String> header;
+    private final long size;
+    private HttpTransport transport = new UrlConnectionTransport();
+    private int connectTimeout;
+    private int readTimeout;
+    private String expectedSha256 = "";
+    private int maxConcurrency = MAX_CONCURRENCY;
+    private TokenBucket bucket;
+
+    /**
+     * Constructor
+     * @param url String url of the file
+     * @param route String name of the route for the statistics
+     * @param header Map with the header of the request
+     * @param size long size of the file given by the metadata
+     */
+    public ChunkedDownloader(String url, String route, Map<String, String> header, long size) {
+        this.url = url;
+        this.route = route;
+        this.header = header == null ? new HashMap<String, String>() : header;
+        this.size = size;
+    }
+
+    public void setTransport(HttpTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Limit the rate of the download
+     * @param bucket TokenBucket shared with the other downloads, null for the full link
+     */
+    public void setTokenBucket(TokenBucket bucket) {
+        this.bucket = bucket;
+    }
+
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public void setExpectedSha256(String expectedSha256) {
+        this.expectedSha256 = expectedSha256 == null ? "" : expectedSha256.trim();
+    }
+
+    /**
+     * Upper limit of the requests in parallel
+     * @param maxConcurrency int between 1 and 4
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = Math.max(MIN_CONCURRENCY, Math.min(MAX_CONCURRENCY, maxConcurrency));
+    }
+
+    /**
+     * Download the file
+     * @param pathFile String final place of the file
+     * @param callback FileDownloader.ProgressCallback with the percent, can be null
+     * @return long size of the file
+     * @throws RangeNotSupportedException if the server ignores the Range header, use FileDownloader instead
+     * @throws IOException if a chunk cannot be downloaded after all the attempts
+     */
+    public long download(String pathFile, final FileDownloader.ProgressCallback callback) throws IOException {
+        if(size <= 0) {
+            throw new IOException("The size is needed to split the file: " + url);
+        }
+
+        File destination = new File(pathFile);
+        File part = new File(pathFile + ".part");
+        final DownloadCheckpoint checkpoint = DownloadCheckpoint.load(part);
+
+        int count = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        final char[] done = restore(checkpoint, part, count);
+
+        RandomAccessFile file = new RandomAccessFile(part, "rw");
+        ExecutorService workers = Executors.newFixedThreadPool(maxConcurrency);
+        try {
+            file.setLength(size);
+            final FileChannel channel = file.getChannel();
+
+            final AtomicLong received = new AtomicLong(0);
+            for (int i = 0; i < count; i++) {
+                if(done[i] == '1') {
+                    received.addAndGet(chunkLength(i));
+                }
+            }
+
+            long restored = received.get();
+            CompletionService<Integer> completion = new ExecutorCompletionService<>(workers);
+            Throughput throughput = new Throughput(Math.min(START_CONCURRENCY, maxConcurrency), maxConcurrency);
+            int next = nextChunk(done, 0);
+            int running = 0;
+            long started = System.nanoTime();
+
+            while (next < count || running > 0) {
+                while (next < count && running < throughput.getConcurrency()) {
+                    final int index = next;
+                    completion.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            fetchChunk(channel, checkpoint, index, received, callback);
+                            return index;
+                        }
+                    });
+                    running++;
+                    next = nextChunk(done, next + 1);
+                }
+
+                Future<Integer> finished = completion.take();
+                running--;
+                int index = get(finished);
+
+                done[index] = '1';
+                synchronized (checkpoint) {
+                    channel.force(false);
+                    checkpoint.setChunks(CHUNK_SIZE, new String(done));
+                    checkpoint.setBytes(received.get());
+                    checkpoint.save();
+                }
+
+                throughput.sample(received.get() - restored, System.nanoTime() - started);
+            }
+
+            channel.force(true);
+        } catch (RangeNotSupportedException ex) {
+            // the chunks on disk can not be resumed by a sequential download
+            checkpoint.reset(url);
+            checkpoint.save();
+            // a chunk still running would write again after the truncation
+            stopWorkers(workers);
+            // the channel is closed when a worker is interrupted on a write, the part is removed instead
+            file.close();
+            FileDownloader.deleteFile(part);
+            throw ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted: " + url);
+        } finally {
+            workers.shutdownNow();
+            file.close();
+        }
+
+        verify(part, checkpoint);
+
+        if(destination.exists()) {
+            FileDownloader.deleteFile(destination);
+        }
+        if(!part.renameTo(destination)) {
+            throw new IOException("Cannot move " + part.getPath() + " to " + pathFile);
+        }
+        checkpoint.delete();
+
+        return destination.length();
+    }
+
+    /**
+     * Interrupt the chunks in progress and wait for them, a read blocked on the socket ends with the read timeout
+     */
+    private void stopWorkers(ExecutorService workers) throws IOException {
+        workers.shutdownNow();
+        try {
+            if(!workers.awaitTermination(readTimeout + STOP_MARGIN_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Chunks still running, cannot restart the download: " + url);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted: " + url);
+        }
+    }
+
+    /**
+     * Chunks already on disk from a previous try of the same file
+     */
+    private char[] restore(DownloadCheckpoint checkpoint, File part, int count) throws IOException {
+        String chunks = checkpoint.getChunks();
+        boolean sameFile = url.equals(checkpoint.getUrl()) && checkpoint.getTotal() == size
+                && checkpoint.getChunkSize() == CHUNK_SIZE && chunks.length() == count && part.exists();
+
+        if(!sameFile) {
+            checkpoint.reset(url);
+            checkpoint.setTotal(size);
+            FileDownloader.deleteFile(part);
+            chunks = "";
+        }
+
+        char[] done = new char[count];
+        for (int i = 0; i < count; i++) {
+            done[i] = i < chunks.length() && chunks.charAt(i) == '1' ? '1' : '0';
+        }
+        checkpoint.setChunks(CHUNK_SIZE, new String(done));
+        checkpoint.save();
+        return done;
+    }
+
+    private void fetchChunk(FileChannel channel, DownloadCheckpoint checkpoint, int index, AtomicLong received, FileDownloader.ProgressCallback callback) throws IOException {
+        IOException lastError = null;
+        for (int attempt = 0; attempt < CHUNK_ATTEMPTS; attempt++) {
+            if(attempt > 0) {
+                FileDownloader.sleep(1000L << (attempt - 1));
+            }
+
+            try {
+                writeChunk(channel, checkpoint, index, received, callback);
+                return;
+            } catch (RangeNotSupportedException ex) {
+                throw ex;
+            } catch (FileDownloader.HttpException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                lastError = ex;
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * One ranged request written on the place of the chunk
+     * @return long bytes written
+     */
+    private long writeChunk(FileChannel channel, DownloadCheckpoint checkpoint, int index, AtomicLong received, FileDownloader.ProgressCallback callback) throws IOException {
+        long start = index * CHUNK_SIZE;
+        long end = start + chunkLength(index) - 1;
+
+        HttpRequest request = new HttpRequest("GET", url, route);
+        request.setHeaders(header);
+        request.setConnectTimeout(connectTimeout);
+        request.setReadTimeout(readTimeout);
+        request.setAcceptGzip(false);
+        request.setHeader("Range", "bytes=" + start + "-" + end);
+
+        String validator;
+        synchronized (checkpoint) {
+            validator = checkpoint.getValidator();
+        }
+        if(!validator.isEmpty()) {
+            request.setHeader("If-Range", validator);
+        }
+
+        HttpResponse response = transport.execute(request);
+        long written = 0;
+        try {
+            if(response.isError()) {
+                throw new FileDownloader.HttpException(response.getCode(), response.getMessage());
+            }
+            if(response.getCode() != 206 || FileDownloader.startOfRange(response.getHeader("Content-Range")) != start) {
+                // a 200 is the whole file, or the file changed since the other chunks
+                throw new RangeNotSupportedException(url);
+            }
+
+            synchronized (checkpoint) {
+                if(checkpoint.getValidator().isEmpty()) {
+                    checkpoint.setValidators(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                }
+            }
+
+            InputStream input = response.getStream();
+            byte[] data = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = start;
+            int count;
+            while (position <= end && (count = input.read(data, 0, (int) Math.min(data.length, end - position + 1))) != -1) {
+                buffer.clear();
+                buffer.limit(count);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                written += count;
+                progress(received.addAndGet(count), callback);
+                if(bucket != null) {
+                    bucket.acquire(count);
+                }
+            }
+
+            if(position <= end) {
+                throw new IOException("Chunk " + index + " incomplete: " + url);
+            }
+            return written;
+        } catch (IOException ex) {
+            // the bytes of a broken try are fetched again
+            received.addAndGet(-written);
+            throw ex;
+        } finally {
+            response.close();
+        }
+    }
+
+    private void progress(long received, FileDownloader.ProgressCallback callback) {
+        if(callback != null) {
+            callback.progress((int) (received * 100 / size));
+        }
+    }
+
+    private long chunkLength(int index) {
+        return Math.min(CHUNK_SIZE, size - index * CHUNK_SIZE);
+    }
+
+    private static int nextChunk(char[] done, int from) {
+        int index = from;
+        while (index < done.length && done[index] == '1') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int get(Future<Integer> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void verify(File part, DownloadCheckpoint checkpoint) throws IOException {
+        String error = null;
+        if(part.length() != size) {
+            error = "Size mismatch, expected " + size + " got " + part.length();
+        } else if(!expectedSha256.isEmpty() && !expectedSha256.equalsIgnoreCase(FileDownloader.sha256(part))) {
+            error = "SHA-256 mismatch";
+        }
+
+        if(error != null) {
+            FileDownloader.deleteFile(part);
+            checkpoint.delete();
+            throw new IOException(error + ": " + url);
+        }
+    }
+
+    /**
+     * Move the concurrency after each chunk with the throughput of the last chunks,
+     * a moving average so a change of the link shows up after a few chunks
+     */
+    static class Throughput {
+        private final int max;
+        private int concurrency;
+        private double best = 0;
+        private double recent = 0;
+        private long lastBytes = 0;
+        private long lastNanos = 0;
+
+        Throughput(int start, int max) {
+            this.concurrency = start;
+            this.max = max;
+        }
+
+        int getConcurrency() {
+            return concurrency;
+        }
+
+        /**
+         * @param bytes long received since the start of the download
+         * @param nanos long time since the start of the download
+         */
+        void sample(long bytes, long nanos) {
+            long interval = nanos - lastNanos;
+            if(interval <= 0) {
+                return;
+            }
+            double rate = (bytes - lastBytes) * 1e9 / interval;
+            lastBytes = bytes;
+            lastNanos = nanos;
+
+            recent = recent == 0 ? rate : RECENT_WEIGHT * rate + (1 - RECENT_WEIGHT) * recent;
+            double current = recent;
+
+            if(best == 0 || current >= best * GROW_RATIO) {
+                // more requests are still paying off
+                best = current;
+                concurrency = Math.min(max, concurrency + 1);
+            } else if(current < best * SHRINK_RATIO) {
+                // the link or the server is saturated
+                best = current;
+                concurrency = Math.max(MIN_CONCURRENCY, concurrency - 1);
+            }
+        }
+    }
+
+    /**
+     * The server does not answer the Range requests with 206
+     */
+    public static class RangeNotSupportedException extends IOException {
+        public RangeNotSupportedException(String url) {
+            super("Range requests not supported: " + url);
+        }
+    }
+}
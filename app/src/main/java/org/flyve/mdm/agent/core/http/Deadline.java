@@ -0,0 +1,92 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Time limit of a request or a chain of requests
+ * The socket timeouts are cut to the time left so a hung server can not hold a worker longer than the budget
+ */
+public class Deadline {
+
+    private final long budget;
+    private final long expiresAt;
+
+    private Deadline(long budget) {
+        this.budget = budget;
+        this.expiresAt = System.nanoTime() + budget * 1000000L;
+    }
+
+    /**
+     * Create a deadline starting now
+     * @param millis long budget in milliseconds
+     * @return Deadline
+     */
+    public static Deadline after(long millis) {
+        return new Deadline(millis);
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Time left before the deadline
+     * @return long milliseconds, 0 if expired
+     */
+    public long remaining() {
+        long left = (expiresAt - System.nanoTime()) / 1000000L;
+        return left > 0 ? left : 0;
+    }
+
+    public boolean isExpired() {
+        return remaining() <= 0;
+    }
+
+    /**
+     * Fail if there is no time left
+     * @throws SocketTimeoutException if the deadline expired
+     */
+    public void check() throws SocketTimeoutException {
+        if(isExpired()) {
+            throw new SocketTimeoutException("Deadline of " + budget + " ms exceeded");
+        }
+    }
+
+    /**
+     * Socket timeout limited by the time left
+     * @param max int timeout of the request, 0 if unlimited
+     * @return int milliseconds, never 0 because 0 is infinite for the sockets
+     * @throws SocketTimeoutException if the deadline expired
+     */
+    public int timeout(int max) throws SocketTimeoutException {
+        check();
+        long left = remaining();
+        if(max > 0 && max < left) {
+            return max;
+        }
+        return (int) Math.max(1, Math.min(left, Integer.MAX_VALUE));
+    }
+}
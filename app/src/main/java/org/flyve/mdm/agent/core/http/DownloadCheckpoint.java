@@ -0,0 +1,204 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Progress of a download saved next to the .part file, used to resume it
+ * with a Range request after the connection drops or the process dies
+ */
+public class DownloadCheckpoint {
+
+    private static final String URL = "url";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String TOTAL = "total";
+    private static final String BYTES = "bytes";
+    private static final String CHUNK_SIZE = "chunkSize";
+    private static final String CHUNKS = "chunks";
+
+    private final File file;
+
+    private String url = "";
+    private String etag = "";
+    private String lastModified = "";
+    private long total = -1;
+    private long bytes = 0;
+    private long chunkSize = 0;
+    private String chunks = "";
+
+    private DownloadCheckpoint(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the checkpoint of the destination file, empty if there is no download in progress
+     * @param partFile File the .part file of the download
+     * @return DownloadCheckpoint
+     */
+    public static DownloadCheckpoint load(File partFile) {
+        DownloadCheckpoint checkpoint = new DownloadCheckpoint(new File(partFile.getPath() + ".meta"));
+        if(!checkpoint.file.exists()) {
+            return checkpoint;
+        }
+
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(checkpoint.file);
+            Properties properties = new Properties();
+            properties.load(input);
+
+            checkpoint.url = properties.getProperty(URL, "");
+            checkpoint.etag = properties.getProperty(ETAG, "");
+            checkpoint.lastModified = properties.getProperty(LAST_MODIFIED, "");
+            checkpoint.total = Long.parseLong(properties.getProperty(TOTAL, "-1"));
+            checkpoint.bytes = Long.parseLong(properties.getProperty(BYTES, "0"));
+            checkpoint.chunkSize = Long.parseLong(properties.getProperty(CHUNK_SIZE, "0"));
+            checkpoint.chunks = properties.getProperty(CHUNKS, "");
+        } catch (Exception ex) {
+            // a broken checkpoint is the same as no checkpoint
+            checkpoint.reset("");
+        } finally {
+            closeQuietly(input);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Write the checkpoint on disk
+     * @throws IOException error
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(URL, url);
+        properties.setProperty(ETAG, etag);
+        properties.setProperty(LAST_MODIFIED, lastModified);
+        properties.setProperty(TOTAL, String.valueOf(total));
+        properties.setProperty(BYTES, String.valueOf(bytes));
+        properties.setProperty(CHUNK_SIZE, String.valueOf(chunkSize));
+        properties.setProperty(CHUNKS, chunks);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(tmp);
+        try {
+            properties.store(output, null);
+            output.getFD().sync();
+        } finally {
+            closeQuietly(output);
+        }
+
+        if(!tmp.renameTo(file)) {
+            throw new IOException("Cannot write the download checkpoint " + file.getPath());
+        }
+    }
+
+    /**
+     * Forget the progress, used when the file changed on the server
+     * @param url String url of the new download
+     */
+    public void reset(String url) {
+        this.url = url;
+        this.etag = "";
+        this.lastModified = "";
+        this.total = -1;
+        this.bytes = 0;
+        this.chunkSize = 0;
+        this.chunks = "";
+    }
+
+    public void delete() {
+        if(file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Validator sent on If-Range, the ETag if the server gave one or the Last-Modified date
+     * @return String validator or empty
+     */
+    public String getValidator() {
+        return !etag.isEmpty() ? etag : lastModified;
+    }
+
+    public void setValidators(String etag, String lastModified) {
+        this.etag = etag == null ? "" : etag;
+        this.lastModified = lastModified == null ? "" : lastModified;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Bytes of the .part file already synced on disk
+     * @return long bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Chunks finished by a parallel download, one character by chunk, '1' if it is on disk
+     * @return String flags or empty if the download is sequential
+     */
+    public String getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(long chunkSize, String chunks) {
+        this.chunkSize = chunkSize;
+        this.chunks = chunks == null ? "" : chunks;
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.core.http;
+
+/**
+ * Rate, requests in parallel and size limit of the downloads for each class of network
+ * Files over the size limit wait until the device is on an unmetered network
+ */
+public class DownloadPolicy {
+
+    public static final int NETWORK_UNMETERED = 0;
+    public static final int NETWORK_METERED = 1;
+    public static final int NETWORK_ROAMING = 2;
+
+    public static final long NO_LIMIT = -1;
+
+    private static final DownloadPolicy UNMETERED = new DownloadPolicy(NETWORK_UNMETERED, NO_LIMIT, 4, NO_LIMIT);
+    private static final DownloadPolicy METERED = new DownloadPolicy(NETWORK_METERED, 512 * 1024, 1, 50 * 1024 * 1024);
+    private static final DownloadPolicy ROAMING = new DownloadPolicy(NETWORK_ROAMING, 64 * 1024, 1, 1024 * 1024);
+
+    private final int network;
+    private final long bytesPerSecond;
+    private final int maxConcurrency;
+    private final long deferSize;
+
+    /**
+     * Constructor
+     * @param network int NETWORK_ class
+     * @param bytesPerSecond long rate of all the downloads together, NO_LIMIT for the full link
+     * @param maxConcurrency int requests in parallel of a chunked download
+     * @param deferSize long bigger files wait for an unmetered network, NO_LIMIT to download everything
+     */
+    public DownloadPolicy(int network, long bytesPerSecond, int maxConcurrency, long deferSize) {
+        this.network = network;
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxConcurrency = maxConcurrency;
+        this.deferSize = deferSize;
+    }
+
+    /**
+     * Get the policy of a class of network
+     * @param network int NETWORK_ class
+     * @return DownloadPolicy the metered one if the class is unknown
+     */
+    public static DownloadPolicy forNetwork(int network) {
+        switch (network) {
+            case NETWORK_UNMETERED:
+                return UNMETERED;
+            case NETWORK_ROAMING:
+                return ROAMING;
+            default:
+                return METERED;
+        }
+    }
+
+    public int getNetwork() {
+        return network;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public long getDeferSize() {
+        return deferSize;
+    }
+
+    /**
+     * Check if a file has to wait for an unmetered network
+     * @param size long size from the metadata, the files of unknown size are not deferred
+     * @return boolean true if the download has to wait
+     */
+    public boolean shouldDefer(long size) {
+        return deferSize != NO_LIMIT && size > deferSize;
+    }
+
+    @Override
+    public String toString() {
+        return "network " + network + " rate " + (bytesPerSecond <= 0 ? "unlimited" : bytesPerSecond + " B/s")
+                + " concurrency " + maxConcurrency;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Download a file in a .part file that survives a dropped connection
+ * The download is resumed with a Range request from the last checkpoint and
+ * the file is moved to its place only after the size and hash are verified
+ */
+public class FileDownloader {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // sync the .part file and save the checkpoint every 512 KB
+    private static final long CHECKPOINT_BYTES = 512 * 1024;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final String url;
+    private final String route;
+    private final Map<String, String> header;
+    private int connectTimeout;
+    private int readTimeout;
+    private long expectedSize = -1;
+    private String expectedSha256 = "";
+    private HttpTransport transport = new UrlConnectionTransport();
+    private TokenBucket bucket;
+
+    /**
+     * Constructor
+     * @param url String url of the file
+     * @param route String name of the route for the statistics
+     * @param header Map with the header of the request
+     */
+    public FileDownloader(String url, String route, Map<String, String> header) {
+        this.url = url;
+        this.route = route;
+        this.header = header == null ? new HashMap<String, String>() : header;
+    }
+
+    /**
+     * Transport used by the requests of the download
+     * @param transport HttpTransport, UrlConnectionTransport by default
+     */
+    public void setTransport(HttpTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Limit the rate of the download
+     * @param bucket TokenBucket shared with the other downloads, null for the full link
+     */
+    public void setTokenBucket(TokenBucket bucket) {
+        this.bucket = bucket;
+    }
+
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Size given by the metadata of the file, checked at the end of the download
+     * @param expectedSize long bytes, -1 if unknown
+     */
+    public void setExpectedSize(long expectedSize) {
+        this.expectedSize = expectedSize;
+    }
+
+    /**
+     * Hash given by the metadata of the file, checked at the end of the download
+     * @param expectedSha256 String hexadecimal SHA-256, empty if unknown
+     */
+    public void setExpectedSha256(String expectedSha256) {
+        this.expectedSha256 = expectedSha256 == null ? "" : expectedSha256.trim();
+    }
+
+    /**
+     * Download the file
+     * @param pathFile String final place of the file
+     * @param callback ProgressCallback with the percent, can be null
+     * @return long size of the file
+     * @throws IOException if the download cannot be completed after all the attempts
+     */
+    public long download(String pathFile, ProgressCallback callback) throws IOException {
+        File destination = new File(pathFile);
+        File part = new File(pathFile + ".part");
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(part);
+
+        if(!url.equals(checkpoint.getUrl()) || !checkpoint.getChunks().isEmpty()) {
+            // another file was downloaded here before, or the chunks of a parallel download
+            checkpoint.reset(url);
+            deleteFile(part);
+        }
+
+        IOException lastError = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if(attempt > 0) {
+                sleep(RETRY_DELAY_MS << (attempt - 1));
+            }
+
+            try {
+                if(fetch(part, checkpoint, callback)) {
+                    break;
+                }
+            } catch (HttpException ex) {
+                // the server refused the request, another attempt will not change it
+                throw ex;
+            } catch (IOException ex) {
+                lastError = ex;
+            }
+
+            if(attempt == MAX_ATTEMPTS - 1) {
+                throw lastError != null ? lastError : new IOException("Download incomplete: " + url);
+            }
+        }
+
+        verify(part, checkpoint);
+
+        if(destination.exists()) {
+            deleteFile(destination);
+        }
+        if(!part.renameTo(destination)) {
+            throw new IOException("Cannot move " + part.getPath() + " to " + pathFile);
+        }
+        checkpoint.delete();
+
+        return destination.length();
+    }
+
+    /**
+     * One request from the checkpoint to the end of the file
+     * @return boolean true if the file is complete
+     */
+    private boolean fetch(File part, DownloadCheckpoint checkpoint, ProgressCallback callback) throws IOException {
+        long offset = Math.min(part.exists() ? part.length() : 0, checkpoint.getBytes());
+        if(checkpoint.getTotal() > 0 && offset >= checkpoint.getTotal()) {
+            return true;
+        }
+
+        HttpRequest request = new HttpRequest("GET", url, route);
+        request.setHeaders(header);
+        request.setConnectTimeout(connectTimeout);
+        request.setReadTimeout(readTimeout);
+        request.setAcceptGzip(false);
+        if(offset > 0) {
+            request.setHeader("Range", "bytes=" + offset + "-");
+            if(!checkpoint.getValidator().isEmpty()) {
+                request.setHeader("If-Range", checkpoint.getValidator());
+            }
+        }
+
+        HttpResponse response = transport.execute(request);
+        RandomAccessFile output = null;
+        try {
+            int code = response.getCode();
+
+            if(code == 416) {
+                // nothing left to send, the checkpoint is wrong so start again
+                checkpoint.reset(url);
+                checkpoint.save();
+                deleteFile(part);
+                throw new IOException("Range not satisfiable at " + offset);
+            }
+
+            if(response.isError()) {
+                throw new HttpException(code, response.getMessage());
+            }
+
+            long length = response.getContentLength();
+            if(code == 206 && offset > 0 && startOfRange(response.getHeader("Content-Range")) == offset) {
+                checkpoint.setTotal(length > 0 ? offset + length : totalOfRange(response.getHeader("Content-Range")));
+            } else {
+                // the server sent the whole file, the file changed or ranges are not supported
+                offset = 0;
+                checkpoint.setTotal(length);
+                checkpoint.setValidators(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+            }
+            checkpoint.setBytes(offset);
+            checkpoint.save();
+
+            output = new RandomAccessFile(part, "rw");
+            output.setLength(offset);
+            output.seek(offset);
+
+            InputStream input = response.getStream();
+            byte[] data = new byte[BUFFER_SIZE];
+            long total = checkpoint.getTotal();
+            long written = offset;
+            long synced = offset;
+            int lastPercent = -1;
+            int count;
+
+            while ((count = input.read(data)) != -1) {
+                output.write(data, 0, count);
+                if(bucket != null) {
+                    bucket.acquire(count);
+                }
+                written += count;
+
+                if(written - synced >= CHECKPOINT_BYTES) {
+                    output.getFD().sync();
+                    synced = written;
+                    checkpoint.setBytes(synced);
+                    checkpoint.save();
+                }
+
+                //publish progress only if total length is known
+                if(callback != null && total > 0) {
+                    int percent = (int) ((written * 100) / total);
+                    if(percent != lastPercent) {
+                        lastPercent = percent;
+                        callback.progress(percent);
+                    }
+                }
+            }
+
+            output.getFD().sync();
+            checkpoint.setBytes(written);
+            checkpoint.save();
+
+            return total <= 0 || written >= total;
+        } finally {
+            if(output != null) {
+                try {
+                    output.close();
+                } catch (IOException ex) {
+                    // nothing to do
+                }
+            }
+            response.close();
+        }
+    }
+
+    private void verify(File part, DownloadCheckpoint checkpoint) throws IOException {
+        long size = part.length();
+        long expected = expectedSize > 0 ? expectedSize : checkpoint.getTotal();
+
+        String error = null;
+        if(expected > 0 && size != expected) {
+            error = "Size mismatch, expected " + expected + " got " + size;
+        } else if(!expectedSha256.isEmpty() && !expectedSha256.equalsIgnoreCase(sha256(part))) {
+            error = "SHA-256 mismatch";
+        }
+
+        if(error != null) {
+            // the file is corrupt, the next try starts from zero
+            deleteFile(part);
+            checkpoint.delete();
+            throw new IOException(error + ": " + url);
+        }
+    }
+
+    /**
+     * SHA-256 of the file
+     * @param file File to hash
+     * @return String hexadecimal hash
+     * @throws IOException error
+     */
+    public static String sha256(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (java.security.NoSuchAlgorithmException ex) {
+            throw new IOException(ex.getMessage());
+        } finally {
+            input.close();
+        }
+    }
+
+    // Content-Range: bytes 200-1000/67589
+    static long startOfRange(String contentRange) {
+        try {
+            String range = contentRange.substring(contentRange.indexOf(' ') + 1);
+            return Long.parseLong(range.substring(0, range.indexOf('-')).trim());
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    static long totalOfRange(String contentRange) {
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    static void deleteFile(File file) {
+        if(file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public interface ProgressCallback {
+        void progress(int value);
+    }
+
+    /**
+     * The server answered with an error code
+     */
+    public static class HttpException extends IOException {
+        private final int code;
+
+        public HttpException(int code, String message) {
+            super("HTTP " + code + " " + message);
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+    }
+}
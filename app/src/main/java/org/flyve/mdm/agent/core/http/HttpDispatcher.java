@@ -0,0 +1,224 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared worker pool for all the HTTP calls of the agent.
+ * The queue is ordered by priority and bounded, when it is full the call with
+ * the lowest priority is rejected so a policy storm cannot flood the radio
+ */
+public class HttpDispatcher {
+
+    // wipe, lock and unenroll status
+    public static final int PRIORITY_CRITICAL = 0;
+    // task status feedback
+    public static final int PRIORITY_HIGH = 1;
+    // enrollment and general requests
+    public static final int PRIORITY_NORMAL = 2;
+    // ping, inventory and geolocation
+    public static final int PRIORITY_LOW = 3;
+
+    private static final int POOL_SIZE = 3;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static HttpDispatcher instance;
+
+    private final PriorityBlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor executor;
+    private final int capacity;
+    private final Object lock = new Object();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Get the dispatcher shared by the whole app
+     * @return HttpDispatcher instance
+     */
+    public static synchronized HttpDispatcher getInstance() {
+        if(instance == null) {
+            instance = new HttpDispatcher(POOL_SIZE, QUEUE_CAPACITY);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     * @param poolSize int number of workers running requests at the same time
+     * @param capacity int maximum number of requests waiting on the queue
+     */
+    public HttpDispatcher(int poolSize, int capacity) {
+        this.capacity = capacity;
+        this.queue = new PriorityBlockingQueue<>(capacity);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "flyve-http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Put a request on the queue
+     * @param priority int one of the PRIORITY_ values, lower runs first
+     * @param task Runnable the request to execute
+     * @param onRejected Runnable called when the request is dropped because the queue is full, can be null
+     * @return boolean true if the request was queued
+     */
+    public boolean dispatch(int priority, Runnable task, Runnable onRejected) {
+        Call call = new Call(priority, sequence.incrementAndGet(), task, onRejected);
+        Call victim = null;
+
+        synchronized (lock) {
+            if(queue.size() >= capacity) {
+                victim = lowestPriorityCall();
+                if(victim == null || victim.priority <= priority) {
+                    // nothing less important is waiting, the new request is the one to drop
+                    victim = call;
+                } else {
+                    queue.remove(victim);
+                }
+            }
+
+            if(victim != call) {
+                executor.execute(call);
+            }
+        }
+
+        if(victim != null) {
+            rejected.incrementAndGet();
+            victim.reject();
+        }
+
+        return victim != call;
+    }
+
+    /**
+     * Requests waiting for a worker
+     * @return int queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Requests running right now
+     * @return int in flight requests
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Requests finished since the app started
+     * @return long completed requests
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Requests dropped by the backpressure since the app started
+     * @return long rejected requests
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * The queue is full and new low priority requests will be rejected
+     * @return boolean true if saturated
+     */
+    public boolean isSaturated() {
+        return queue.size() >= capacity;
+    }
+
+    private Call lowestPriorityCall() {
+        Call lowest = null;
+        Iterator<Runnable> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Call call = (Call) iterator.next();
+            if(lowest == null || call.compareTo(lowest) > 0) {
+                lowest = call;
+            }
+        }
+        return lowest;
+    }
+
+    private class Call implements Runnable, Comparable<Call> {
+        private final int priority;
+        private final long order;
+        private final Runnable task;
+        private final Runnable onRejected;
+
+        Call(int priority, long order, Runnable task, Runnable onRejected) {
+            this.priority = priority;
+            this.order = order;
+            this.task = task;
+            this.onRejected = onRejected;
+        }
+
+        @Override
+        public void run() {
+            inFlight.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        }
+
+        void reject() {
+            if(onRejected != null) {
+                onRejected.run();
+            }
+        }
+
+        @Override
+        public int compareTo(Call other) {
+            if(priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            // same priority keep the arrival order
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Describe a request sent by the connection layer
+ */
+public class HttpRequest {
+
+    private String url;
+    private String method;
+    private String route;
+    private Map<String, String> headers = new LinkedHashMap<>();
+    private byte[] body;
+    private int connectTimeout;
+    private int readTimeout;
+    private boolean acceptGzip = true;
+    private boolean followRedirects = true;
+    private Deadline deadline;
+
+    /**
+     * Constructor
+     * @param method String GET, POST, PUT...
+     * @param url String the url
+     * @param route String name of the route used on the statistics
+     */
+    public HttpRequest(String method, String url, String route) {
+        this.method = method;
+        this.url = url;
+        this.route = route;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    public void setHeaders(Map<String, String> header) {
+        if(header != null) {
+            headers.putAll(header);
+        }
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public boolean isAcceptGzip() {
+        return acceptGzip;
+    }
+
+    /**
+     * Binary downloads are requested without compression
+     * @param acceptGzip boolean false to ask for the identity encoding
+     */
+    public void setAcceptGzip(boolean acceptGzip) {
+        this.acceptGzip = acceptGzip;
+    }
+
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+
+    public void setFollowRedirects(boolean followRedirects) {
+        this.followRedirects = followRedirects;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Limit the whole request, the connect and read timeouts are cut to the time left
+     * @param deadline Deadline shared by the requests of the same chain, null if unlimited
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Identify identical requests, same method, url and headers in any order
+     * @return String key
+     */
+    public String getKey() {
+        StringBuilder key = new StringBuilder(method).append(" ").append(url);
+        for (Map.Entry<String, String> entry : new TreeMap<>(headers).entrySet()) {
+            key.append("\n").append(entry.getKey()).append(":").append(entry.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Headers ready to write on the log
+     * @return String with one header by line
+     */
+    public String getLogHeader() {
+        if(headers.isEmpty()) {
+            return "Empty";
+        }
+
+        StringBuilder logHeader = new StringBuilder();
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            logHeader.append("- ").append(entry.getKey()).append(" : ").append(entry.getValue()).append("\n");
+        }
+        return logHeader.toString();
+    }
+}
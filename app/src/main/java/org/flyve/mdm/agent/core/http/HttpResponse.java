@@ -0,0 +1,255 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Response of the connection layer, the body is decompressed and counted while it is read
+ */
+public class HttpResponse {
+
+    private static final int DRAIN_LIMIT = 64 * 1024;
+
+    private final HttpURLConnection connection;
+    private final Map<String, String> headers;
+    private final InputStream source;
+    private final HttpStats.RouteStats stats;
+    private final String host;
+    private final int code;
+    private final String message;
+    private final Deadline deadline;
+    private final long start;
+
+    private CountingInputStream wire;
+    private CountingInputStream body;
+    private InputStream stream;
+    private boolean closed = false;
+
+    HttpResponse(HttpURLConnection connection, HttpStats.RouteStats stats, String host, Deadline deadline, long start) throws IOException {
+        this.connection = connection;
+        this.headers = null;
+        this.source = null;
+        this.stats = stats;
+        this.host = host;
+        this.deadline = deadline;
+        this.start = start;
+        this.code = connection.getResponseCode();
+        this.message = connection.getResponseMessage();
+        stats.addFirstByte(UrlConnectionTransport.elapsed(start));
+    }
+
+    /**
+     * Response built by another transport, for example an OkHttp client or a stand-in on the tests
+     * @param request HttpRequest answered, gives the route and the deadline
+     * @param code int status code
+     * @param headers Map<String, String> response headers, the names are not case sensitive
+     * @param body InputStream body as received, null if there is no body
+     */
+    public HttpResponse(HttpRequest request, int code, Map<String, String> headers, InputStream body) {
+        this.connection = null;
+        this.headers = headers;
+        this.source = body;
+        this.stats = HttpStats.getInstance().getRoute(request.getRoute());
+        this.host = null;
+        this.deadline = request.getDeadline();
+        this.start = System.nanoTime();
+        this.code = code;
+        this.message = "";
+        stats.addFirstByte(0);
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isError() {
+        return code >= 400;
+    }
+
+    public String getHeader(String name) {
+        if(connection != null) {
+            return connection.getHeaderField(name);
+        }
+        if(headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if(name.equalsIgnoreCase(header.getKey())) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Length announced by the server
+     * @return long bytes or -1 if unknown
+     */
+    public long getContentLength() {
+        String length = getHeader("Content-Length");
+        if(length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Body of the response, the error stream if the code is 400 or more
+     * @return InputStream already decompressed
+     * @throws IOException error
+     */
+    public InputStream getStream() throws IOException {
+        if(stream == null) {
+            InputStream raw;
+            if(connection != null) {
+                raw = isError() ? connection.getErrorStream() : connection.getInputStream();
+            } else {
+                raw = source;
+            }
+            if(raw == null) {
+                raw = new ByteArrayInputStream(new byte[0]);
+            }
+
+            wire = new CountingInputStream(raw);
+            InputStream decoded = wire;
+            if("gzip".equalsIgnoreCase(getHeader("Content-Encoding"))) {
+                decoded = new GZIPInputStream(wire);
+            }
+            body = new CountingInputStream(decoded);
+            stream = new FilterInputStream(body) {
+                @Override
+                public int read() throws IOException {
+                    checkDeadline();
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    checkDeadline();
+                    return super.read(buffer, offset, length);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    HttpResponse.this.close();
+                }
+            };
+        }
+        return stream;
+    }
+
+    /**
+     * The read timeout is by read, a slow server sending small pieces is stopped here
+     */
+    private void checkDeadline() throws IOException {
+        if(deadline != null && deadline.isExpired()) {
+            stats.addDeadlineExceeded();
+            deadline.check();
+        }
+    }
+
+    /**
+     * Release the connection, if the body was not read it is drained to keep the socket alive
+     */
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+
+        boolean reusable = true;
+        try {
+            if(stream == null) {
+                getStream();
+            }
+            byte[] buffer = new byte[4096];
+            long drained = 0;
+            int count;
+            while (drained < DRAIN_LIMIT && (count = body.read(buffer)) != -1) {
+                drained += count;
+            }
+            reusable = drained < DRAIN_LIMIT;
+            body.close();
+        } catch (IOException ex) {
+            reusable = false;
+        }
+
+        stats.addReceived(wire == null ? 0 : wire.getCount(), body == null ? 0 : body.getCount());
+        stats.addTotal(UrlConnectionTransport.elapsed(start));
+        if(host != null) {
+            UrlConnectionTransport.release(host, reusable);
+        }
+    }
+
+    static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if(value != -1) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if(read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic counters of the connection layer by route
+ */
+public class HttpStats {
+
+    private static HttpStats instance;
+
+    private final Map<String, RouteStats> routes = new HashMap<>();
+
+    /**
+     * Get the statistics shared by the whole app
+     * @return HttpStats instance
+     */
+    public static synchronized HttpStats getInstance() {
+        if(instance == null) {
+            instance = new HttpStats();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the counters of the route, created on first use
+     * @param route String name of the route
+     * @return RouteStats counters
+     */
+    public RouteStats getRoute(String route) {
+        String name = route == null ? "other" : route;
+        synchronized (routes) {
+            RouteStats stats = routes.get(name);
+            if(stats == null) {
+                stats = new RouteStats(name);
+                routes.put(name, stats);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Get all the routes used since the app started
+     * @return List of RouteStats
+     */
+    public List<RouteStats> getRoutes() {
+        synchronized (routes) {
+            return new ArrayList<>(routes.values());
+        }
+    }
+
+    /**
+     * Summary of all the routes ready to write on the log
+     * @return String report
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (RouteStats stats : getRoutes()) {
+            report.append(stats.toString()).append("\n");
+        }
+        return report.toString();
+    }
+
+    public void reset() {
+        synchronized (routes) {
+            routes.clear();
+        }
+    }
+
+    public static class RouteStats {
+        private final String name;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong handshakesSaved = new AtomicLong();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final AtomicLong bodyBytesSent = new AtomicLong();
+        private final AtomicLong bodyBytesReceived = new AtomicLong();
+        private final AtomicLong deadlinesExceeded = new AtomicLong();
+        private final LatencyHistogram connect = new LatencyHistogram();
+        private final LatencyHistogram firstByte = new LatencyHistogram();
+        private final LatencyHistogram total = new LatencyHistogram();
+
+        RouteStats(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Requests that found an idle keep-alive connection to the same host
+         * @return long estimated handshakes saved
+         */
+        public long getHandshakesSaved() {
+            return handshakesSaved.get();
+        }
+
+        /**
+         * Bytes of the request bodies as written on the wire
+         * @return long bytes
+         */
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        /**
+         * Bytes of the response bodies as read from the wire, before decompression
+         * @return long bytes
+         */
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        public long getBodyBytesSent() {
+            return bodyBytesSent.get();
+        }
+
+        public long getBodyBytesReceived() {
+            return bodyBytesReceived.get();
+        }
+
+        /**
+         * Time to open the socket, including DNS and TLS, close to 0 when the connection is reused
+         * @return LatencyHistogram
+         */
+        public LatencyHistogram getConnectLatency() {
+            return connect;
+        }
+
+        /**
+         * Time from the start of the request to the status line
+         * @return LatencyHistogram
+         */
+        public LatencyHistogram getFirstByteLatency() {
+            return firstByte;
+        }
+
+        /**
+         * Time from the start of the request until the body is read and the response closed
+         * @return LatencyHistogram
+         */
+        public LatencyHistogram getTotalLatency() {
+            return total;
+        }
+
+        public long getDeadlinesExceeded() {
+            return deadlinesExceeded.get();
+        }
+
+        void addConnect(long millis) {
+            connect.record(millis);
+        }
+
+        void addFirstByte(long millis) {
+            firstByte.record(millis);
+        }
+
+        void addTotal(long millis) {
+            total.record(millis);
+        }
+
+        void addDeadlineExceeded() {
+            deadlinesExceeded.incrementAndGet();
+        }
+
+        void addRequest(boolean reused) {
+            requests.incrementAndGet();
+            if(reused) {
+                handshakesSaved.incrementAndGet();
+            }
+        }
+
+        void addSent(long wire, long body) {
+            bytesSent.addAndGet(wire);
+            bodyBytesSent.addAndGet(body);
+        }
+
+        void addReceived(long wire, long body) {
+            bytesReceived.addAndGet(wire);
+            bodyBytesReceived.addAndGet(body);
+        }
+
+        @Override
+        public String toString() {
+            return name + " requests: " + requests.get()
+                    + " handshakes saved: " + handshakesSaved.get()
+                    + " sent: " + bytesSent.get() + "/" + bodyBytesSent.get()
+                    + " received: " + bytesReceived.get() + "/" + bodyBytesReceived.get()
+                    + " deadlines exceeded: " + deadlinesExceeded.get()
+                    + "\n  connect " + connect
+                    + "\n  ttfb " + firstByte
+                    + "\n  total " + total;
+        }
+    }
+}
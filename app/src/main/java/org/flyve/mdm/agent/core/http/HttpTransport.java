@@ -0,0 +1,42 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.IOException;
+
+/**
+ * Send a request and give back the response, ConnectionHTTP and the downloads go through it
+ * so the connection layer can be replaced, for example by a stand-in server on the tests
+ */
+public interface HttpTransport {
+
+    /**
+     * Send the request and wait for the status line
+     * The response must be closed to give back the connection
+     * @param request HttpRequest
+     * @return HttpResponse
+     * @throws IOException error
+     */
+    HttpResponse execute(HttpRequest request) throws IOException;
+}
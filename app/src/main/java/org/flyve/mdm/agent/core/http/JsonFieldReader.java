@@ -0,0 +1,135 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Pull only the needed fields of a JSON response without building the whole tree
+ * The fields are written as paths, objects and arrays are separated by dots
+ * Example: "session.plugin_flyvemdm_guest_profiles_id" or "data.0.2"
+ */
+public class JsonFieldReader {
+
+    private JsonFieldReader() {
+    }
+
+    /**
+     * Read the fields from an UTF-8 stream, the stream is not closed
+     * @param stream InputStream with the JSON
+     * @param paths String paths of the fields
+     * @return JsonFields with the values found
+     * @throws IOException if the JSON is malformed
+     */
+    public static JsonFields read(InputStream stream, String... paths) throws IOException {
+        return read(new InputStreamReader(stream, "UTF-8"), paths);
+    }
+
+    /**
+     * Read the fields from a reader, the reader is not closed
+     * @param reader Reader with the JSON
+     * @param paths String paths of the fields
+     * @return JsonFields with the values found
+     * @throws IOException if the JSON is malformed
+     */
+    public static JsonFields read(Reader reader, String... paths) throws IOException {
+        JsonFields fields = new JsonFields();
+        JsonReader json = new JsonReader(reader);
+        json.setLenient(true);
+
+        readValue(json, "", paths, fields);
+        return fields;
+    }
+
+    private static void readValue(JsonReader json, String path, String[] paths, JsonFields fields) throws IOException {
+        JsonToken token = json.peek();
+
+        if(token == JsonToken.BEGIN_OBJECT) {
+            if(!isParent(path, paths)) {
+                json.skipValue();
+                return;
+            }
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                readValue(json, child(path, name), paths, fields);
+            }
+            json.endObject();
+        } else if(token == JsonToken.BEGIN_ARRAY) {
+            if(!isParent(path, paths)) {
+                json.skipValue();
+                return;
+            }
+            json.beginArray();
+            int index = 0;
+            while (json.hasNext()) {
+                readValue(json, child(path, String.valueOf(index++)), paths, fields);
+            }
+            json.endArray();
+        } else if(isWanted(path, paths)) {
+            if(token == JsonToken.NULL) {
+                json.nextNull();
+                fields.put(path, null);
+            } else if(token == JsonToken.BOOLEAN) {
+                fields.put(path, String.valueOf(json.nextBoolean()));
+            } else {
+                // numbers are kept as the text sent by the server
+                fields.put(path, json.nextString());
+            }
+        } else {
+            json.skipValue();
+        }
+    }
+
+    private static String child(String path, String name) {
+        return path.isEmpty() ? name : path + "." + name;
+    }
+
+    private static boolean isWanted(String path, String[] paths) {
+        for (String wanted : paths) {
+            if(wanted.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isParent(String path, String[] paths) {
+        if(path.isEmpty()) {
+            return true;
+        }
+        for (String wanted : paths) {
+            if(wanted.startsWith(path + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fields read from a JSON response by JsonFieldReader
+ * If the request fails the error holds the body sent by the server or the exception
+ */
+public class JsonFields {
+
+    private final Map<String, String> values = new HashMap<>();
+    private String error = "";
+    // a failed request may come with an empty body
+    private boolean failed = false;
+
+    /**
+     * Create the fields of a failed request
+     * @param error String body of the error or exception message
+     * @return JsonFields without values
+     */
+    public static JsonFields error(String error) {
+        JsonFields fields = new JsonFields();
+        fields.error = error == null ? "" : error;
+        fields.failed = true;
+        return fields;
+    }
+
+    void put(String path, String value) {
+        values.put(path, value);
+    }
+
+    public boolean has(String path) {
+        return values.containsKey(path) && values.get(path) != null;
+    }
+
+    /**
+     * Get a required field, same behavior of JSONObject.getString
+     * @param path String path of the field
+     * @return String value
+     * @throws IOException if the field is not on the response
+     */
+    public String getString(String path) throws IOException {
+        String value = values.get(path);
+        if(value == null) {
+            throw new IOException("No value for " + path);
+        }
+        return value;
+    }
+
+    /**
+     * Get a required numeric field
+     * @param path String path of the field
+     * @return int value
+     * @throws IOException if the field is not on the response or is not a number
+     */
+    public int getInt(String path) throws IOException {
+        try {
+            return (int) Double.parseDouble(getString(path));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Value of " + path + " is not a number");
+        }
+    }
+
+    public String optString(String path, String fallback) {
+        String value = values.get(path);
+        return value == null ? fallback : value;
+    }
+
+    public long optLong(String path, long fallback) {
+        try {
+            return (long) Double.parseDouble(values.get(path));
+        } catch (Exception ex) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Body of the error, empty if the request worked
+     * @return String error
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isError() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return isError() ? error : values.toString();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency distribution with fixed buckets, cheap enough to record every request
+ */
+public class LatencyHistogram {
+
+    // upper bound in milliseconds of each bucket, the last bucket has no limit
+    private static final long[] BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Add a sample
+     * @param millis long latency in milliseconds
+     */
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        int index = 0;
+        while (index < BOUNDS.length && value > BOUNDS[index]) {
+            index++;
+        }
+        buckets.incrementAndGet(index);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long samples = count.get();
+        return samples == 0 ? 0 : sum.get() / samples;
+    }
+
+    /**
+     * Upper bound of the bucket that holds the percentile
+     * @param percentile double between 0 and 100
+     * @return long milliseconds, the max if it is on the last bucket
+     */
+    public long getPercentile(double percentile) {
+        long samples = count.get();
+        if(samples == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(samples * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if(seen >= rank) {
+                return Math.min(BOUNDS[i], max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "p50 " + getPercentile(50) + " p90 " + getPercentile(90) + " p99 " + getPercentile(99) + " max " + getMax() + " ms";
+    }
+}
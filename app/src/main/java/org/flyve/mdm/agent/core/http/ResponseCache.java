@@ -0,0 +1,272 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Responses saved on disk with their validators, revalidated with If-None-Match / If-Modified-Since
+ * The size is bounded, the least recently used entries are removed first
+ */
+public class ResponseCache {
+
+    private static final String EXTENSION = ".entry";
+
+    private final File dir;
+    private final long maxSize;
+    // file name -> size, in access order
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private boolean loaded = false;
+
+    /**
+     * Constructor
+     * @param dir File folder of the entries, created on first use
+     * @param maxSize long bytes on disk
+     */
+    public ResponseCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the response saved for the url
+     * @param url String the url
+     * @return Entry or null if there is none
+     */
+    public synchronized Entry get(String url) {
+        load();
+        String name = fileName(url);
+        if(!index.containsKey(name)) {
+            return null;
+        }
+
+        File file = new File(dir, name);
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(file));
+            Entry entry = new Entry();
+            entry.url = input.readUTF();
+            entry.etag = input.readUTF();
+            entry.lastModified = input.readUTF();
+            entry.body = new byte[input.readInt()];
+            input.readFully(entry.body);
+
+            if(!url.equals(entry.url)) {
+                return null;
+            }
+
+            // keep the order after a restart
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException ex) {
+            removeFile(name);
+            return null;
+        } finally {
+            close(input);
+        }
+    }
+
+    /**
+     * Save the response, only if the server sent a validator
+     * @param url String the url
+     * @param etag String ETag header, can be null
+     * @param lastModified String Last-Modified header, can be null
+     * @param body byte[] body of the response
+     */
+    public synchronized void put(String url, String etag, String lastModified, byte[] body) {
+        if((etag == null || etag.isEmpty()) && (lastModified == null || lastModified.isEmpty())) {
+            return;
+        }
+
+        load();
+        String name = fileName(url);
+        File file = new File(dir, name);
+        File tmp = new File(dir, name + ".tmp");
+
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new FileOutputStream(tmp));
+            output.writeUTF(url);
+            output.writeUTF(etag == null ? "" : etag);
+            output.writeUTF(lastModified == null ? "" : lastModified);
+            output.writeInt(body.length);
+            output.write(body);
+            output.close();
+            output = null;
+
+            removeFile(name);
+            if(!tmp.renameTo(file)) {
+                throw new IOException("Can't save " + file.getName());
+            }
+
+            index.put(name, file.length());
+            size += file.length();
+            trim();
+        } catch (IOException ex) {
+            tmp.delete();
+        } finally {
+            close(output);
+        }
+    }
+
+    public synchronized void remove(String url) {
+        load();
+        removeFile(fileName(url));
+    }
+
+    public synchronized void clear() {
+        load();
+        for (String name : new ArrayList<>(index.keySet())) {
+            removeFile(name);
+        }
+    }
+
+    public synchronized long getSize() {
+        load();
+        return size;
+    }
+
+    private void removeFile(String name) {
+        Long length = index.remove(name);
+        if(length != null) {
+            size -= length;
+        }
+        new File(dir, name).delete();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            size -= eldest.getValue();
+            new File(dir, eldest.getKey()).delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Read the folder once, oldest access first
+     */
+    private void load() {
+        if(loaded) {
+            return;
+        }
+        loaded = true;
+
+        if(!dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+
+        File[] files = dir.listFiles();
+        if(files == null) {
+            return;
+        }
+
+        List<File> entries = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : entries) {
+            if(file.getName().endsWith(EXTENSION)) {
+                index.put(file.getName(), file.length());
+                size += file.length();
+            } else {
+                // temporary file of an interrupted write
+                file.delete();
+            }
+        }
+        trim();
+    }
+
+    private static String fileName(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.append(EXTENSION).toString();
+        } catch (Exception ex) {
+            return Integer.toHexString(url.hashCode()) + EXTENSION;
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * Response saved on disk
+     */
+    public static class Entry {
+        private String url;
+        private String etag;
+        private String lastModified;
+        private byte[] body;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.IOException;
+
+/**
+ * Keep the session token in memory instead of asking a new one for each request
+ * The token is used until its time to live, a little before the end it is refreshed on the
+ * background while the callers keep the current one. A 401 with the token drops it
+ * Callers waiting for a refresh share the same initSession
+ */
+public class SessionManager {
+
+    // the server closes an idle session after 24 minutes by default
+    private static final long TOKEN_TTL_MS = 20 * 60 * 1000;
+    private static final long REFRESH_AHEAD_MS = 2 * 60 * 1000;
+    private static final String SESSION_KEY = "initSession";
+
+    private static SessionManager instance;
+
+    private final long ttl;
+    private final long refreshAhead;
+    private final SingleFlight<String> flight = new SingleFlight<>();
+
+    private String owner;
+    private String token;
+    private long acquired;
+    private boolean refreshing;
+
+    /**
+     * Get the session manager shared by the whole app
+     * @return SessionManager instance
+     */
+    public static synchronized SessionManager getInstance() {
+        if(instance == null) {
+            instance = new SessionManager(TOKEN_TTL_MS, REFRESH_AHEAD_MS);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     * @param ttl long milliseconds a token is used
+     * @param refreshAhead long milliseconds before the end of the ttl to refresh on the background
+     */
+    public SessionManager(long ttl, long refreshAhead) {
+        this.ttl = ttl;
+        this.refreshAhead = refreshAhead;
+    }
+
+    /**
+     * Get the session token
+     * @param owner String credential of the session, a token of another credential is not used
+     * @param loader Loader doing the initSession when there is no valid token
+     * @return String session token
+     * @throws IOException error of the initSession
+     */
+    public String getToken(final String owner, final Loader loader) throws IOException {
+        synchronized (this) {
+            if(token != null && owner.equals(this.owner)) {
+                long age = System.currentTimeMillis() - acquired;
+                if(age >= 0 && age < ttl - refreshAhead) {
+                    return token;
+                }
+                if(age >= 0 && age < ttl) {
+                    refreshInBackground(owner, loader);
+                    return token;
+                }
+            }
+        }
+        return refresh(owner, loader);
+    }
+
+    /**
+     * Drop the token after the server refused it, the next caller gets a new one
+     * @param refused String token sent with the request
+     */
+    public synchronized void invalidate(String refused) {
+        if(refused != null && refused.equals(token)) {
+            token = null;
+        }
+    }
+
+    /**
+     * Drop the token, on unenroll
+     */
+    public synchronized void clear() {
+        token = null;
+        owner = null;
+    }
+
+    public long getRefreshCount() {
+        return flight.getCallCount();
+    }
+
+    public long getSharedRefreshCount() {
+        return flight.getCoalescedCount();
+    }
+
+    private String refresh(final String owner, final Loader loader) throws IOException {
+        return flight.execute(SESSION_KEY + owner, new SingleFlight.Call<String>() {
+            @Override
+            public String call() throws IOException {
+                String newToken = loader.load();
+                synchronized (SessionManager.this) {
+                    SessionManager.this.owner = owner;
+                    token = newToken;
+                    acquired = System.currentTimeMillis();
+                }
+                return newToken;
+            }
+        });
+    }
+
+    private void refreshInBackground(final String owner, final Loader loader) {
+        if(refreshing) {
+            return;
+        }
+        refreshing = true;
+
+        HttpDispatcher.getInstance().dispatch(HttpDispatcher.PRIORITY_HIGH, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh(owner, loader);
+                } catch (IOException ex) {
+                    // the current token is used until the end of its ttl
+                } finally {
+                    synchronized (SessionManager.this) {
+                        refreshing = false;
+                    }
+                }
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SessionManager.this) {
+                    refreshing = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Do the initSession
+     */
+    public interface Loader {
+        String load() throws IOException;
+    }
+}
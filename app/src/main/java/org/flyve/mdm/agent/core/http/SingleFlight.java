@@ -0,0 +1,137 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Share one call between the callers asking for the same key at the same time
+ * The first caller does the work, the others wait and get the same result or exception
+ * @param <T> type of the result, shared by all the callers so it must not be modified
+ */
+public class SingleFlight<T> {
+
+    private final Map<String, Flight<T>> flights = new HashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Run the call or join the one in flight with the same key
+     * @param key String identifies identical calls
+     * @param call Call to run if nobody is running it
+     * @return T result of the call
+     * @throws IOException error of the call
+     */
+    public T execute(String key, Call<T> call) throws IOException {
+        Flight<T> flight;
+        boolean leader = false;
+
+        synchronized (flights) {
+            flight = flights.get(key);
+            if(flight == null) {
+                flight = new Flight<>();
+                flights.put(key, flight);
+                leader = true;
+            }
+        }
+
+        if(!leader) {
+            coalesced.incrementAndGet();
+            return flight.await();
+        }
+
+        calls.incrementAndGet();
+        T result = null;
+        // kept if the call throws an Error, the waiters fail with it instead of waiting forever
+        IOException error = new IOException("The request in flight did not finish: " + key);
+        try {
+            result = call.call();
+            error = null;
+        } catch (IOException ex) {
+            error = ex;
+        } catch (RuntimeException ex) {
+            error = new IOException(ex.getMessage(), ex);
+        } finally {
+            // the next caller starts a new call, the result is only shared while in flight
+            synchronized (flights) {
+                flights.remove(key);
+            }
+            flight.complete(result, error);
+        }
+
+        if(error != null) {
+            throw error;
+        }
+        return result;
+    }
+
+    /**
+     * Calls done on the network
+     * @return long calls
+     */
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    /**
+     * Callers that got the result of a call in flight instead of doing their own
+     * @return long callers
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+
+    private static class Flight<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private T result;
+        private IOException error;
+
+        void complete(T result, IOException error) {
+            this.result = result;
+            this.error = error;
+            done.countDown();
+        }
+
+        T await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for the request in flight");
+            }
+            if(error != null) {
+                throw error;
+            }
+            return result;
+        }
+    }
+}
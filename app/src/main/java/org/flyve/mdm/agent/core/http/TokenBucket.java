@@ -0,0 +1,109 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limit the bytes per second read by the downloads
+ * The same bucket is shared by all the downloads so the limit is for the device, not for each file
+ * The bytes are paid after they are read, a read bigger than the tokens left waits for its own debt only
+ */
+public class TokenBucket {
+
+    private volatile long bytesPerSecond;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Constructor
+     * @param bytesPerSecond long rate, 0 or less for no limit
+     */
+    public TokenBucket(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Change the rate, the downloads in progress take it on the next read
+     * @param bytesPerSecond long rate, 0 or less for no limit
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        if(this.bytesPerSecond == bytesPerSecond) {
+            return;
+        }
+        refill();
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = Math.min(tokens, bytesPerSecond);
+        notifyAll();
+    }
+
+    /**
+     * Take the tokens of the bytes read, waits while the bucket is in debt
+     * @param bytes int read from the stream
+     * @throws InterruptedIOException if the download is cancelled while waiting
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        if(bytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+
+        synchronized (this) {
+            refill();
+            tokens -= bytes;
+            if(tokens >= 0 || bytesPerSecond <= 0) {
+                return;
+            }
+
+            long wakeUp = System.nanoTime() + (long) (-tokens * 1000000000L / bytesPerSecond);
+            try {
+                long left;
+                while (bytesPerSecond > 0 && (left = wakeUp - System.nanoTime()) > 0) {
+                    long millis = left / 1000000L;
+                    wait(millis, (int) (left - millis * 1000000L));
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download cancelled while throttled");
+            }
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if(bytesPerSecond > 0) {
+            // one second of burst at most
+            tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * bytesPerSecond / 1000000000.0);
+        } else {
+            tokens = 0;
+        }
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Transport over HttpURLConnection, the default of ConnectionHTTP
+ * Keep the sockets alive between requests to the same host and accept compressed responses
+ * The bodies are sent as is, the server is not known to accept compressed requests
+ * The pool of the platform is shared, so the idle connections are tracked for all the instances
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    // idle time of the connections on the platform pool
+    private static final long KEEP_ALIVE_MS = 5 * 60 * 1000;
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    private static final Map<String, Host> hosts = new HashMap<>();
+
+    static {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+    }
+
+    /**
+     * Send the request and wait for the status line
+     * The response must be closed to give back the connection to the pool
+     * @param request HttpRequest
+     * @return HttpResponse
+     * @throws IOException error
+     */
+    @Override
+    public HttpResponse execute(HttpRequest request) throws IOException {
+        URL url = new URL(request.getUrl());
+        String hostKey = url.getProtocol() + "://" + url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+
+        HttpStats.RouteStats stats = HttpStats.getInstance().getRoute(request.getRoute());
+        Deadline deadline = request.getDeadline();
+        long start = System.nanoTime();
+
+        // the request may have waited on the dispatcher queue longer than its budget
+        if(deadline != null && deadline.isExpired()) {
+            stats.addDeadlineExceeded();
+            deadline.check();
+        }
+
+        stats.addRequest(acquire(hostKey));
+
+        try {
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setConnectTimeout(deadline == null ? request.getConnectTimeout() : deadline.timeout(request.getConnectTimeout()));
+            conn.setReadTimeout(deadline == null ? request.getReadTimeout() : deadline.timeout(request.getReadTimeout()));
+            conn.setInstanceFollowRedirects(request.isFollowRedirects());
+            conn.setRequestMethod(request.getMethod());
+            conn.setUseCaches(false);
+
+            for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
+                conn.setRequestProperty(entry.getKey(), entry.getValue());
+            }
+            conn.setRequestProperty("Connection", "keep-alive");
+            conn.setRequestProperty("Accept-Encoding", request.isAcceptGzip() ? "gzip" : "identity");
+
+            byte[] body = request.getBody();
+            if(body != null) {
+                conn.setDoOutput(true);
+                conn.setFixedLengthStreamingMode(body.length);
+            }
+
+            conn.connect();
+            stats.addConnect(elapsed(start));
+
+            if(body != null) {
+                OutputStream os = conn.getOutputStream();
+                os.write(body);
+                os.flush();
+                os.close();
+
+                stats.addSent(body.length, body.length);
+            }
+
+            return new HttpResponse(conn, stats, hostKey, deadline, start);
+        } catch (IOException ex) {
+            if(deadline != null && deadline.isExpired()) {
+                stats.addDeadlineExceeded();
+            }
+            stats.addTotal(elapsed(start));
+            release(hostKey, false);
+            throw ex;
+        }
+    }
+
+    static long elapsed(long start) {
+        return (System.nanoTime() - start) / 1000000L;
+    }
+
+    private static Host getHost(String hostKey) {
+        synchronized (hosts) {
+            Host host = hosts.get(hostKey);
+            if(host == null) {
+                host = new Host();
+                hosts.put(hostKey, host);
+            }
+            return host;
+        }
+    }
+
+    /**
+     * Take an idle connection of the host if there is one still alive
+     * @return boolean true if the request is going to reuse a connection
+     */
+    private static boolean acquire(String hostKey) {
+        Host host = getHost(hostKey);
+        synchronized (host) {
+            if(System.currentTimeMillis() - host.lastRelease > KEEP_ALIVE_MS) {
+                host.idle = 0;
+            }
+            if(host.idle > 0) {
+                host.idle--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Give back the connection to the pool
+     * @param reusable boolean false if the socket was broken or the body was not consumed
+     */
+    static void release(String hostKey, boolean reusable) {
+        if(!reusable) {
+            return;
+        }
+        Host host = getHost(hostKey);
+        synchronized (host) {
+            host.idle = Math.min(host.idle + 1, MAX_IDLE_CONNECTIONS);
+            host.lastRelease = System.currentTimeMillis();
+        }
+    }
+
+    private static class Host {
+        int idle = 0;
+        long lastRelease = 0;
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.core.outbox;
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.core.Routes;
+import org.flyve.mdm.agent.core.enrollment.EnrollmentHelper;
+import org.flyve.mdm.agent.core.http.Deadline;
+import org.flyve.mdm.agent.data.database.OutboxData;
+import org.flyve.mdm.agent.data.database.TaskStatusData;
+import org.flyve.mdm.agent.data.database.entity.Outbox;
+import org.flyve.mdm.agent.policies.BasePolicies;
+import org.flyve.mdm.agent.policies.TaskStatusBatcher;
+import org.flyve.mdm.agent.utils.ConnectionHTTP;
+import org.flyve.mdm.agent.utils.FlyveLog;
+import org.flyve.mdm.agent.utils.Helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save the task statuses, pings, online status and geolocation reports before sending them
+ * One background thread sends the outbox: the messages of the same task or url go in order,
+ * a failed one is tried again later with an exponential backoff and jitter.
+ * Only the latest status of a task waits in the outbox, a final status is never replaced by an older one
+ */
+public class OutboxWorker {
+
+    // the statuses of one message are sent together
+    private static final long WINDOW_MS = 300;
+    private static final int MAX_BATCH = 50;
+    private static final int MAX_ATTEMPTS = 20;
+    private static final long BASE_BACKOFF_MS = 5000;
+    private static final long MAX_BACKOFF_MS = 30 * 60 * 1000;
+    // the fleet reconnects at the same time, each device waits a random time before sending
+    private static final long RECONNECT_JITTER_MS = 30000;
+    private static final long WAIT_MARGIN_MS = 5000;
+    // the connectivity receiver wakes up the worker, this is for the flavors without it
+    private static final long OFFLINE_POLL_MS = 60000;
+
+    private static OutboxWorker instance;
+
+    private final Context context;
+    private final OutboxData outbox;
+    private final TaskStatusData taskStatusData;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+    private final Random random = new Random();
+    private ScheduledFuture<?> nextDrain;
+    private volatile ReplyChannel replyChannel;
+    private long nextDrainTime;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (OutboxWorker.this) {
+                nextDrain = null;
+            }
+            try {
+                drain();
+            } catch (Exception ex) {
+                FlyveLog.e(OutboxWorker.class.getName() + ", drain", ex.getMessage());
+            }
+            scheduleNext();
+        }
+    };
+
+    private OutboxWorker(Context context) {
+        this.context = context.getApplicationContext();
+        this.outbox = new OutboxData(this.context);
+        this.taskStatusData = new TaskStatusData(this.context);
+    }
+
+    public static synchronized OutboxWorker getInstance(Context context) {
+        if(instance == null) {
+            instance = new OutboxWorker(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Save the status of a task and send it
+     * @param taskId String id of the task
+     * @param status String one of the BasePolicies FEEDBACK_ values
+     */
+    public void addTaskStatus(final String taskId, final String status) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                collapseTaskStatus(taskId, status);
+            }
+        });
+        schedule(WINDOW_MS);
+    }
+
+    /**
+     * Keep one message per task with its latest status, runs on the worker thread
+     * so no status of the task is being sent at the same time
+     */
+    private void collapseTaskStatus(String taskId, String status) {
+        boolean isFinal = BasePolicies.isFinalStatus(status);
+        if(!isFinal && BasePolicies.isFinalStatus(taskStatusData.getLastStatus(taskId))) {
+            FlyveLog.d("Task " + taskId + " already closed, status ignored: " + status);
+            return;
+        }
+
+        String orderKey = Outbox.TYPE_TASK_STATUS + ":" + taskId;
+        Outbox[] pending = outbox.getByKey(orderKey);
+        if(pending.length == 0) {
+            Outbox message = new Outbox();
+            message.type = Outbox.TYPE_TASK_STATUS;
+            message.orderKey = orderKey;
+            message.url = taskId;
+            message.payload = status;
+            message.nextAttempt = System.currentTimeMillis();
+            outbox.add(message);
+            return;
+        }
+
+        if(!isFinal && BasePolicies.isFinalStatus(pending[pending.length - 1].payload)) {
+            return;
+        }
+
+        // the oldest message keeps its place and its backoff, the others are superseded
+        Outbox head = pending[0];
+        head.payload = status;
+        outbox.update(head);
+        for (int i = 1; i < pending.length; i++) {
+            outbox.delete(pending[i]);
+        }
+    }
+
+    /**
+     * Save a request to the plugin and send it
+     * @param kind String one of the Outbox KIND_ values, a ping does not wait for an inventory
+     * @param url String url of the agent or of the geolocation
+     * @param data String the json sent
+     * @param priority int HttpDispatcher priority
+     */
+    public void addHttp(String kind, String url, String data, int priority) {
+        Outbox message = new Outbox();
+        message.type = Outbox.TYPE_HTTP;
+        message.orderKey = getHttpOrderKey(kind, url);
+        message.url = url;
+        message.payload = data;
+        message.priority = priority;
+        add(message);
+    }
+
+    /**
+     * Send a request to the plugin without saving it and wait for the answer
+     * For the last report before the enrollment is removed, it could not be sent later
+     * Must not be called from the main thread
+     * @param kind String one of the Outbox KIND_ values
+     * @param url String url of the agent
+     * @param data String the json sent
+     * @param priority int HttpDispatcher priority
+     * @return boolean true if the server got it
+     */
+    public boolean sendNow(String kind, String url, String data, int priority) {
+        Outbox message = new Outbox();
+        message.type = Outbox.TYPE_HTTP;
+        message.orderKey = getHttpOrderKey(kind, url);
+        message.url = url;
+        message.payload = data;
+        message.priority = priority;
+
+        Boolean delivered = send(Collections.singletonList(message)).get(message);
+        return delivered != null && delivered;
+    }
+
+    private static String getHttpOrderKey(String kind, String url) {
+        return Outbox.TYPE_HTTP + ":" + kind + ":" + url;
+    }
+
+    /**
+     * Remove the messages waiting, they belong to an enrollment that is removed
+     */
+    public void clear() {
+        synchronized (this) {
+            if(nextDrain != null) {
+                nextDrain.cancel(false);
+                nextDrain = null;
+            }
+        }
+        // after the messages added before
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                outbox.deleteAll();
+            }
+        });
+    }
+
+    private void add(final Outbox message) {
+        message.nextAttempt = System.currentTimeMillis();
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                outbox.add(message);
+            }
+        });
+        schedule(WINDOW_MS);
+    }
+
+    /**
+     * Send the messages by another channel when it is up, HTTP is the fallback
+     * @param channel ReplyChannel, null to use only HTTP
+     */
+    public void setReplyChannel(ReplyChannel channel) {
+        this.replyChannel = channel;
+    }
+
+    /**
+     * Send the outbox, after a random delay if the device just got connected
+     * @param reconnected boolean true when called from a change of connectivity
+     */
+    public void wakeUp(boolean reconnected) {
+        schedule(reconnected ? (long) (random.nextDouble() * RECONNECT_JITTER_MS) : 0);
+    }
+
+    private synchronized void schedule(long delay) {
+        long time = System.currentTimeMillis() + delay;
+        if(nextDrain != null) {
+            if(nextDrainTime <= time) {
+                return;
+            }
+            nextDrain.cancel(false);
+        }
+        nextDrainTime = time;
+        nextDrain = worker.schedule(drainTask, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleNext() {
+        if(outbox.count() == 0) {
+            return;
+        }
+        if(!Helpers.isOnline(context)) {
+            schedule(OFFLINE_POLL_MS);
+            return;
+        }
+        schedule(Math.max(0, outbox.getNextAttempt() - System.currentTimeMillis()));
+    }
+
+    /**
+     * Send the first message of each key, runs on the worker thread
+     */
+    private void drain() {
+        while (Helpers.isOnline(context)) {
+            long now = System.currentTimeMillis();
+            List<Outbox> ready = new ArrayList<>();
+            for (Outbox message : outbox.getHeads(MAX_BATCH)) {
+                if(message.nextAttempt <= now) {
+                    ready.add(message);
+                }
+            }
+            if(ready.isEmpty()) {
+                return;
+            }
+
+            Map<Outbox, Boolean> results = send(ready);
+
+            boolean failed = false;
+            for (Outbox message : ready) {
+                Boolean delivered = results.get(message);
+                if(delivered != null && delivered) {
+                    outbox.delete(message);
+                    if(Outbox.TYPE_TASK_STATUS.equals(message.type)) {
+                        taskStatusData.setLastStatus(message.url, message.payload);
+                    }
+                } else {
+                    failed = true;
+                    retry(message);
+                }
+            }
+
+            // the server is down or busy, wait for the backoff
+            if(failed) {
+                return;
+            }
+        }
+    }
+
+    private void retry(Outbox message) {
+        message.attempts++;
+        if(message.attempts >= MAX_ATTEMPTS) {
+            FlyveLog.e(OutboxWorker.class.getName() + ", retry", "Message dropped after " + message.attempts + " attempts: " + message.orderKey);
+            outbox.delete(message);
+            return;
+        }
+
+        // exponential backoff with jitter, half of the delay is random
+        long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(message.attempts - 1, 20));
+        message.nextAttempt = System.currentTimeMillis() + backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+        outbox.update(message);
+    }
+
+    /**
+     * Send the messages and wait for the responses
+     * @return Map with true for each message delivered
+     */
+    private Map<Outbox, Boolean> send(List<Outbox> messages) {
+        final Map<Outbox, Boolean> results = new HashMap<>();
+        final CountDownLatch latch = new CountDownLatch(messages.size());
+        final Deadline deadline = Deadline.after(Routes.TASK_STATUS_BUDGET);
+
+        final List<Outbox> requests = new ArrayList<>();
+        TaskStatusBatcher batcher = TaskStatusBatcher.getInstance(context);
+        ReplyChannel channel = replyChannel;
+        for (final Outbox message : messages) {
+            if(channel != null && channel.send(message, new ReplyChannel.DeliveryCallback() {
+                @Override
+                public void onResult(boolean delivered) {
+                    done(results, message, delivered, delivered ? "Delivered by the reply channel" : "Not delivered by the reply channel", latch);
+                }
+            })) {
+                continue;
+            }
+
+            if(Outbox.TYPE_TASK_STATUS.equals(message.type)) {
+                batcher.add(message.url, message.payload, new ConnectionHTTP.DataCallback() {
+                    @Override
+                    public void callback(String data) {
+                        done(results, message, data, latch);
+                    }
+                });
+            } else {
+                requests.add(message);
+            }
+        }
+        batcher.flush();
+
+        if(!requests.isEmpty()) {
+            EnrollmentHelper enrollmentHelper = new EnrollmentHelper(context);
+            enrollmentHelper.getActiveSessionToken(deadline, new EnrollmentHelper.EnrollCallBack() {
+                @Override
+                public void onSuccess(String sessionToken) {
+                    for (final Outbox message : requests) {
+                        ConnectionHTTP.sendHttpResponse(context, message.url, message.payload, sessionToken, message.priority, deadline, new ConnectionHTTP.DataCallback() {
+                            @Override
+                            public void callback(String data) {
+                                done(results, message, data, latch);
+                            }
+                        });
+                    }
+                }
+
+                @Override
+                public void onError(int type, String error) {
+                    for (Outbox message : requests) {
+                        done(results, message, false, error, latch);
+                    }
+                }
+            });
+        }
+
+        try {
+            latch.await(deadline.getBudget() + WAIT_MARGIN_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (results) {
+            return new HashMap<>(results);
+        }
+    }
+
+    /**
+     * The answers of ConnectionHTTP start with its failure prefix when the request failed
+     * or the server answered with an error status
+     */
+    private static void done(Map<Outbox, Boolean> results, Outbox message, String data, CountDownLatch latch) {
+        done(results, message, !ConnectionHTTP.isFailure(data), data, latch);
+    }
+
+    private static void done(Map<Outbox, Boolean> results, Outbox message, boolean delivered, String data, CountDownLatch latch) {
+        synchronized (results) {
+            if(results.containsKey(message)) {
+                return;
+            }
+            results.put(message, delivered);
+        }
+        Helpers.storeLog("fcm", "outbox response", data);
+        latch.countDown();
+    }
+}
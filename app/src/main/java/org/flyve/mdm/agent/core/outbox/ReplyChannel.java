@@ -0,0 +1,46 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.core.outbox;
+
+import org.flyve.mdm.agent.data.database.entity.Outbox;
+
+/**
+ * Another way than HTTP to send the messages of the outbox, like the MQTT connection
+ * already open. The outbox uses HTTP for the messages the channel can not take
+ */
+public interface ReplyChannel {
+
+    interface DeliveryCallback {
+        void onResult(boolean delivered);
+    }
+
+    /**
+     * Send a message of the outbox
+     * @param message Outbox the task status or the request to the plugin
+     * @param callback DeliveryCallback called once, when the message is delivered or lost
+     * @return boolean false if the channel is down or does not carry this message
+     */
+    boolean send(Outbox message, DeliveryCallback callback);
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.data.database;
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.data.database.entity.InboundMessage;
+import org.flyve.mdm.agent.data.database.setup.AppDataBase;
+
+/**
+ * Recently received messages, a message delivered again by the broker or by FCM
+ * is found here and not executed twice
+ */
+public class InboundMessageData {
+
+    // enough for several full profiles of the device and its fleet
+    private static final int MAX_MESSAGES = 500;
+
+    private AppDataBase dataBase;
+
+    public InboundMessageData(Context context) {
+        dataBase = AppDataBase.getAppDatabase(context);
+    }
+
+    /**
+     * Check if the same body was already received for this key
+     * @param messageKey String the topic and the task of the message
+     * @param payloadHash String hash of the body
+     * @param ttl long milliseconds the message is known, 0 to keep it until it is trimmed
+     * @return boolean true if the message was already received
+     */
+    public boolean isReceived(String messageKey, String payloadHash, long ttl) {
+        InboundMessage previous = dataBase.InboundMessageDao().getByKey(messageKey);
+        return previous != null && payloadHash.equals(previous.payloadHash)
+                && (ttl <= 0 || System.currentTimeMillis() - previous.received < ttl);
+    }
+
+    /**
+     * Save the message, it replaces the previous body of the key
+     * @param messageKey String the topic and the task of the message
+     * @param payloadHash String hash of the body
+     */
+    public void markReceived(String messageKey, String payloadHash) {
+        InboundMessage message = new InboundMessage();
+        message.messageKey = messageKey;
+        message.payloadHash = payloadHash;
+        message.received = System.currentTimeMillis();
+        dataBase.InboundMessageDao().insert(message);
+        dataBase.InboundMessageDao().trim(MAX_MESSAGES);
+    }
+
+    public void deleteAll() {
+        dataBase.InboundMessageDao().deleteAll();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.data.database;
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.data.database.entity.Outbox;
+import org.flyve.mdm.agent.data.database.setup.AppDataBase;
+
+/**
+ * Messages to the server waiting to be sent, they survive the restart of the process
+ */
+public class OutboxData {
+
+    private AppDataBase dataBase;
+
+    public OutboxData(Context context) {
+        dataBase = AppDataBase.getAppDatabase(context);
+    }
+
+    public void add(Outbox message) {
+        dataBase.OutboxDao().insert(message);
+    }
+
+    /**
+     * Get the oldest message of each key, the next ones wait until it is sent
+     * @param limit int maximum of messages
+     * @return Outbox[] in the order they were added
+     */
+    public Outbox[] getHeads(int limit) {
+        return dataBase.OutboxDao().loadHeads(limit);
+    }
+
+    /**
+     * Get the messages of a key waiting to be sent
+     * @param orderKey String the task id or the url with the type
+     * @return Outbox[] from the oldest
+     */
+    public Outbox[] getByKey(String orderKey) {
+        return dataBase.OutboxDao().loadByKey(orderKey);
+    }
+
+    /**
+     * Get the time of the next message to send, only the first message of each key counts
+     * @return long milliseconds, 0 if the outbox is empty
+     */
+    public long getNextAttempt() {
+        return dataBase.OutboxDao().getNextAttempt();
+    }
+
+    public int count() {
+        return dataBase.OutboxDao().count();
+    }
+
+    public void update(Outbox message) {
+        dataBase.OutboxDao().update(message);
+    }
+
+    public void delete(Outbox message) {
+        dataBase.OutboxDao().delete(message);
+    }
+
+    public void deleteAll() {
+        dataBase.OutboxDao().deleteAll();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.data.database;
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.data.database.entity.QueuedMessage;
+import org.flyve.mdm.agent.data.database.setup.AppDataBase;
+
+/**
+ * Messages received from the broker and not processed yet, they are saved
+ * before the broker gets the acknowledgement
+ */
+public class QueuedMessageData {
+
+    private AppDataBase dataBase;
+
+    public QueuedMessageData(Context context) {
+        dataBase = AppDataBase.getAppDatabase(context);
+    }
+
+    public void add(String topic, String payload) {
+        QueuedMessage message = new QueuedMessage();
+        message.topic = topic;
+        message.payload = payload;
+        message.received = System.currentTimeMillis();
+        dataBase.QueuedMessageDao().insert(message);
+    }
+
+    /**
+     * Get the oldest message
+     * @return QueuedMessage null if the queue is empty
+     */
+    public QueuedMessage getFirst() {
+        return dataBase.QueuedMessageDao().loadFirst();
+    }
+
+    public int count() {
+        return dataBase.QueuedMessageDao().count();
+    }
+
+    public void delete(QueuedMessage message) {
+        dataBase.QueuedMessageDao().delete(message);
+    }
+
+    public void deleteAll() {
+        dataBase.QueuedMessageDao().deleteAll();
+    }
+}
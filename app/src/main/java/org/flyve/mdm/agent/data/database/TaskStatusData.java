@@ -0,0 +1,82 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.data.database;
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.data.database.entity.TaskStatus;
+import org.flyve.mdm.agent.data.database.setup.AppDataBase;
+
+/**
+ * Index of the taskstatus id of each task, the status changes after the first one
+ * are sent without searching the taskstatus again
+ */
+public class TaskStatusData {
+
+    private AppDataBase dataBase;
+
+    public TaskStatusData(Context context) {
+        dataBase = AppDataBase.getAppDatabase(context);
+    }
+
+    /**
+     * Get the taskstatus id of a task
+     * @param taskId String id of the task
+     * @return String the taskstatus id, empty if the task was never searched
+     */
+    public String getTaskStatusId(String taskId) {
+        String taskStatusId = dataBase.TaskStatusDao().getTaskStatusId(taskId);
+        return taskStatusId == null ? "" : taskStatusId;
+    }
+
+    public void setTaskStatusId(String taskId, String taskStatusId) {
+        TaskStatus taskStatus = new TaskStatus();
+        taskStatus.taskId = taskId;
+        taskStatus.taskStatusId = taskStatusId;
+        dataBase.TaskStatusDao().insert(taskStatus);
+    }
+
+    /**
+     * Get the last status received by the server
+     * @param taskId String id of the task
+     * @return String the status, empty if unknown
+     */
+    public String getLastStatus(String taskId) {
+        String status = dataBase.TaskStatusDao().getLastStatus(taskId);
+        return status == null ? "" : status;
+    }
+
+    public void setLastStatus(String taskId, String status) {
+        dataBase.TaskStatusDao().updateLastStatus(taskId, status);
+    }
+
+    public void deleteByTaskId(String taskId) {
+        dataBase.TaskStatusDao().deleteByTaskId(taskId);
+    }
+
+    public void deleteAll() {
+        dataBase.TaskStatusDao().deleteAll();
+    }
+}
@@ -79,4 +79,41 @@ public class TopicsData {
     public void clearTopics() {
         dataBase.TopicsDao().clearTopics();
     }
+
+    /**
+     * Mark several topics at once, one transaction for all the acknowledged topics
+     * @param topics List of the topics
+     * @param status int 1 subscribed, 0 not subscribed
+     */
+    public void setStatusTopics(List<String> topics, int status) {
+        if(!topics.isEmpty()) {
+            dataBase.TopicsDao().setStatus(topics, status);
+        }
+    }
+
+    /**
+     * Apply the changes of the subscriptions in one transaction
+     * @param removed List of the topics to delete
+     * @param added List of the new topics, they get the id of their row
+     * @param updated List of the topics with a new qos or status
+     */
+    public void applyChanges(final List<String> removed, final List<Topics> added, final List<Topics> updated) {
+        dataBase.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                if(!removed.isEmpty()) {
+                    dataBase.TopicsDao().deleteByTopic(removed);
+                }
+                if(!added.isEmpty()) {
+                    List<Long> ids = dataBase.TopicsDao().insertAll(added);
+                    for (int i = 0; i < ids.size(); i++) {
+                        added.get(i).id = ids.get(i).intValue();
+                    }
+                }
+                if(!updated.isEmpty()) {
+                    dataBase.TopicsDao().update(updated.toArray(new Topics[updated.size()]));
+                }
+            }
+        });
+    }
 }
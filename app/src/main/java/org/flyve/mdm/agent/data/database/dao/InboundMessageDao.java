@@ -0,0 +1,48 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.data.database.dao;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+import org.flyve.mdm.agent.data.database.entity.InboundMessage;
+
+@Dao
+public interface InboundMessageDao {
+
+    @Insert (onConflict = OnConflictStrategy.REPLACE)
+    void insert(InboundMessage... messages);
+
+    @Query("SELECT * FROM inbound_message WHERE message_key = :messageKey LIMIT 1")
+    InboundMessage getByKey(String messageKey);
+
+    @Query("DELETE FROM inbound_message WHERE id NOT IN (SELECT id FROM inbound_message ORDER BY received DESC LIMIT :max)")
+    void trim(int max);
+
+    @Query("DELETE FROM inbound_message")
+    void deleteAll();
+}
@@ -39,6 +39,9 @@ public interface TopicsDao {
     @Insert
     void insert(Topics... topics);
 
+    @Insert
+    List<Long> insertAll(List<Topics> topics);
+
     @Update
     void update(Topics... topics);
 
@@ -62,4 +65,10 @@ public interface TopicsDao {
 
     @Query("update topics set status = 0")
     void clearTopics();
+
+    @Query("update topics set status = :status where topic in (:topics)")
+    void setStatus(List<String> topics, int status);
+
+    @Query("delete FROM topics where topic in (:topics)")
+    void deleteByTopic(List<String> topics);
 }
\ No newline at end of file
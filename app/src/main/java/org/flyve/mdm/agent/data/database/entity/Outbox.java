@@ -0,0 +1,68 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.data.database.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+@Entity (tableName = "outbox", indices = {@Index(value = {"order_key"})})
+public class Outbox {
+
+    public static final String TYPE_TASK_STATUS = "taskstatus";
+    public static final String TYPE_HTTP = "http";
+
+    // kinds of the http messages, only the messages of the same kind wait for each other
+    public static final String KIND_PING = "ping";
+    public static final String KIND_ONLINE = "online";
+    public static final String KIND_INVENTORY = "inventory";
+    public static final String KIND_GEOLOCATION = "geolocation";
+
+    @PrimaryKey (autoGenerate = true)
+    public int id;
+
+    @ColumnInfo (name = "type")
+    public String type;
+
+    // the messages of the same key are sent in order, the task id or the kind and the url
+    @ColumnInfo (name = "order_key")
+    public String orderKey;
+
+    @ColumnInfo (name = "url")
+    public String url;
+
+    @ColumnInfo (name = "payload")
+    public String payload;
+
+    @ColumnInfo (name = "priority")
+    public int priority;
+
+    @ColumnInfo (name = "attempts")
+    public int attempts;
+
+    @ColumnInfo (name = "next_attempt")
+    public long nextAttempt;
+}
@@ -23,36 +23,91 @@
 
 package org.flyve.mdm.agent.data.database.setup;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
 import android.content.Context;
 
 import org.flyve.mdm.agent.data.database.dao.ApplicationDao;
 import org.flyve.mdm.agent.data.database.dao.FileDao;
+import org.flyve.mdm.agent.data.database.dao.InboundMessageDao;
 import org.flyve.mdm.agent.data.database.dao.MDMLogDao;
 import org.flyve.mdm.agent.data.database.dao.MQTTDao;
+import org.flyve.mdm.agent.data.database.dao.OutboxDao;
 import org.flyve.mdm.agent.data.database.dao.PoliciesDao;
+import org.flyve.mdm.agent.data.database.dao.QueuedMessageDao;
+import org.flyve.mdm.agent.data.database.dao.TaskStatusDao;
 import org.flyve.mdm.agent.data.database.dao.TopicsDao;
 import org.flyve.mdm.agent.data.database.entity.Application;
 import org.flyve.mdm.agent.data.database.entity.File;
+import org.flyve.mdm.agent.data.database.entity.InboundMessage;
 import org.flyve.mdm.agent.data.database.entity.MDMLog;
 import org.flyve.mdm.agent.data.database.entity.MQTT;
+import org.flyve.mdm.agent.data.database.entity.Outbox;
 import org.flyve.mdm.agent.data.database.entity.Policies;
+import org.flyve.mdm.agent.data.database.entity.QueuedMessage;
+import org.flyve.mdm.agent.data.database.entity.TaskStatus;
 import org.flyve.mdm.agent.data.database.entity.Topics;
 
 
-@Database(entities = {Application.class, MQTT.class, Policies.class, File.class, MDMLog.class, Topics.class}, version = 14, exportSchema = false)
+@Database(entities = {Application.class, MQTT.class, Policies.class, File.class, MDMLog.class, Topics.class, TaskStatus.class, Outbox.class, InboundMessage.class, QueuedMessage.class}, version = 19, exportSchema = false)
 public abstract class AppDataBase extends RoomDatabase {
 
     private static AppDataBase instance;
 
+    // the tables added after the version 14 are created without touching the data of the agent
+
+    static final Migration MIGRATION_14_15 = new Migration(14, 15) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `task_status` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `task_id` TEXT, `task_status_id` TEXT)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_task_status_task_id` ON `task_status` (`task_id`)");
+        }
+    };
+
+    static final Migration MIGRATION_15_16 = new Migration(15, 16) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `outbox` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `type` TEXT, `order_key` TEXT, `url` TEXT, `payload` TEXT, `priority` INTEGER NOT NULL, `attempts` INTEGER NOT NULL, `next_attempt` INTEGER NOT NULL)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_outbox_order_key` ON `outbox` (`order_key`)");
+        }
+    };
+
+    static final Migration MIGRATION_16_17 = new Migration(16, 17) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `task_status` ADD COLUMN `last_status` TEXT");
+        }
+    };
+
+    static final Migration MIGRATION_17_18 = new Migration(17, 18) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `inbound_message` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `message_key` TEXT, `payload_hash` TEXT, `received` INTEGER NOT NULL)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_inbound_message_message_key` ON `inbound_message` (`message_key`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_inbound_message_received` ON `inbound_message` (`received`)");
+        }
+    };
+
+    static final Migration MIGRATION_18_19 = new Migration(18, 19) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `queued_message` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `topic` TEXT, `payload` TEXT, `received` INTEGER NOT NULL)");
+        }
+    };
+
     public abstract ApplicationDao applicationDao();
     public abstract MQTTDao MQTTDao();
     public abstract PoliciesDao PoliciesDao();
     public abstract FileDao FileDao();
     public abstract MDMLogDao MDMLogDao();
     public abstract TopicsDao TopicsDao();
+    public abstract TaskStatusDao TaskStatusDao();
+    public abstract OutboxDao OutboxDao();
+    public abstract InboundMessageDao InboundMessageDao();
+    public abstract QueuedMessageDao QueuedMessageDao();
 
     public static AppDataBase getAppDatabase(Context context) {
         if (instance == null) {
@@ -60,6 +115,7 @@ public abstract class AppDataBase extends RoomDatabase {
                     AppDataBase.class,
                     "flyve-mdm-db")
                     .allowMainThreadQueries()
+                    .addMigrations(MIGRATION_14_15, MIGRATION_15_16, MIGRATION_16_17, MIGRATION_17_18, MIGRATION_18_19)
                     .fallbackToDestructiveMigration()
                     .build();
         }
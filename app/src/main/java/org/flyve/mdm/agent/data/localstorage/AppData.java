@@ -117,4 +117,36 @@ public class AppData extends LocalStorage {
         setData("darkTheme", String.valueOf(status));
     }
 
+    /**
+     * Get the MQTT client id, the broker keeps the session of this id
+     * @return String the client id, empty if never connected
+     */
+    public String getMqttClientId() {
+        return getData("mqttClientId");
+    }
+
+    /**
+     * Set the MQTT client id
+     * @param clientId String
+     */
+    public void setMqttClientId(String clientId) {
+        setData("mqttClientId", clientId);
+    }
+
+    /**
+     * Get if the MQTT session starts clean on each connection
+     * @return boolean false to keep the session and the messages sent while offline
+     */
+    public boolean getMqttCleanSession() {
+        return Boolean.valueOf(getData("mqttCleanSession"));
+    }
+
+    /**
+     * Set if the MQTT session starts clean on each connection
+     * @param status enable / disable
+     */
+    public void setMqttCleanSession(boolean status) {
+        setData("mqttCleanSession", String.valueOf(status));
+    }
+
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+package org.flyve.mdm.agent.data.localstorage;
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.utils.FlyveLog;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Downloads waiting for an unmetered network, they are started again by PoliciesFiles.resumeDeferred
+ */
+public class DeferredDownloadData extends LocalStorage {
+
+    private static final String DOWNLOADS = "FlyveMDMDeferredDownloads";
+    private static final Object LOCK = new Object();
+
+    /**
+     * Constructor
+     *
+     * @param context
+     */
+    public DeferredDownloadData(Context context) {
+        super(context);
+    }
+
+    /**
+     * Save a download, replaces the one of the same task
+     * @param type String file or package
+     * @param path String path of the file or name of the package
+     * @param id String id of the file on the server
+     * @param taskId String id of the task
+     * @param versionCode String version of the package, empty for a file
+     */
+    public void add(String type, String path, String id, String taskId, String versionCode) {
+        synchronized (LOCK) {
+            JSONArray downloads = getDownloads();
+            JSONArray updated = new JSONArray();
+            for (int i = 0; i < downloads.length(); i++) {
+                JSONObject download = downloads.optJSONObject(i);
+                if(download != null && !taskId.equals(download.optString("taskId"))) {
+                    updated.put(download);
+                }
+            }
+
+            try {
+                JSONObject download = new JSONObject();
+                download.put("type", type);
+                download.put("path", path);
+                download.put("id", id);
+                download.put("taskId", taskId);
+                download.put("versionCode", versionCode == null ? "" : versionCode);
+                updated.put(download);
+            } catch (JSONException ex) {
+                FlyveLog.e(this.getClass().getName() + ", add", ex.getMessage());
+                return;
+            }
+
+            setData(DOWNLOADS, updated.toString());
+        }
+    }
+
+    /**
+     * Get the saved downloads and remove them, a download deferred again is saved again
+     * @return JSONArray of objects with type, path, id, taskId and versionCode
+     */
+    public JSONArray takeAll() {
+        synchronized (LOCK) {
+            JSONArray downloads = getDownloads();
+            if(downloads.length() > 0) {
+                deleteKeyCache(DOWNLOADS);
+            }
+            return downloads;
+        }
+    }
+
+    private JSONArray getDownloads() {
+        String data = getData(DOWNLOADS);
+        if(data.isEmpty()) {
+            return new JSONArray();
+        }
+
+        try {
+            return new JSONArray(data);
+        } catch (JSONException ex) {
+            FlyveLog.e(this.getClass().getName() + ", getDownloads", ex.getMessage());
+            return new JSONArray();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.data.localstorage;
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.utils.FlyveLog;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keep-alive intervals learned for each network, used again when the device comes back to it
+ */
+public class KeepAliveData extends LocalStorage {
+
+    private static final String NETWORKS = "FlyveMDMKeepAliveNetworks";
+    private static final String AVOIDED_WAKEUPS = "FlyveMDMKeepAliveAvoidedWakeups";
+    private static final String SAFE = "safe";
+    private static final String FAILED = "failed";
+    private static final Object LOCK = new Object();
+
+    /**
+     * Constructor
+     *
+     * @param context
+     */
+    public KeepAliveData(Context context) {
+        super(context);
+    }
+
+    /**
+     * @param network String key of the network
+     * @param defaultInterval int seconds returned if the network is unknown
+     * @return int longest interval in seconds that kept the connection on this network
+     */
+    public int getSafeInterval(String network, int defaultInterval) {
+        synchronized (LOCK) {
+            JSONObject state = getNetworks().optJSONObject(network);
+            return state == null ? defaultInterval : state.optInt(SAFE, defaultInterval);
+        }
+    }
+
+    /**
+     * @param network String key of the network
+     * @return int shortest interval in seconds that lost the connection on this network, 0 if none
+     */
+    public int getFailedInterval(String network) {
+        synchronized (LOCK) {
+            JSONObject state = getNetworks().optJSONObject(network);
+            return state == null ? 0 : state.optInt(FAILED, 0);
+        }
+    }
+
+    /**
+     * Save what was learned on a network
+     * @param network String key of the network
+     * @param safeInterval int seconds
+     * @param failedInterval int seconds, 0 if none
+     */
+    public void setIntervals(String network, int safeInterval, int failedInterval) {
+        synchronized (LOCK) {
+            JSONObject networks = getNetworks();
+            try {
+                JSONObject state = new JSONObject();
+                state.put(SAFE, safeInterval);
+                state.put(FAILED, failedInterval);
+                networks.put(network, state);
+            } catch (JSONException ex) {
+                FlyveLog.e(this.getClass().getName() + ", setIntervals", ex.getMessage());
+                return;
+            }
+            setData(NETWORKS, networks.toString());
+        }
+    }
+
+    /**
+     * @return long radio wakeups avoided compared to the default keep-alive
+     */
+    public long getAvoidedWakeups() {
+        try {
+            return Long.parseLong(getData(AVOIDED_WAKEUPS));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param wakeups long radio wakeups avoided during the last connection
+     * @return long the new total
+     */
+    public long addAvoidedWakeups(long wakeups) {
+        synchronized (LOCK) {
+            long total = getAvoidedWakeups() + wakeups;
+            setData(AVOIDED_WAKEUPS, String.valueOf(total));
+            return total;
+        }
+    }
+
+    private JSONObject getNetworks() {
+        String data = getData(NETWORKS);
+        if(data.isEmpty()) {
+            return new JSONObject();
+        }
+
+        try {
+            return new JSONObject(data);
+        } catch (JSONException ex) {
+            FlyveLog.e(this.getClass().getName() + ", getNetworks", ex.getMessage());
+            return new JSONObject();
+        }
+    }
+}
@@ -29,13 +29,10 @@ package org.flyve.mdm.agent.policies;
 
 import android.content.Context;
 
-import org.flyve.mdm.agent.core.enrollment.EnrollmentHelper;
+import org.flyve.mdm.agent.core.outbox.OutboxWorker;
 import org.flyve.mdm.agent.data.database.PoliciesData;
 import org.flyve.mdm.agent.data.database.entity.Policies;
-import org.flyve.mdm.agent.utils.ConnectionHTTP;
 import org.flyve.mdm.agent.utils.FlyveLog;
-import org.flyve.mdm.agent.utils.Helpers;
-import org.json.JSONObject;
 
 public abstract class BasePolicies {
 
@@ -105,38 +102,20 @@ public abstract class BasePolicies {
         }
     }
 
+    /**
+     * Report the status of a task, it is saved on the outbox until the server gets it
+     */
     public static void sendTaskStatusbyHttp(final Context context,final String status, final String taskId ){
-        EnrollmentHelper enrollmentHelper = new EnrollmentHelper(context);
-        enrollmentHelper.getActiveSessionToken(new EnrollmentHelper.EnrollCallBack() {
-            @Override
-            public void onSuccess(String sessionToken) {
-                Helpers.storeLog("fcm", "http response session token", sessionToken);
-                String payload = "";
-                try {
-                    JSONObject jsonPayload = new JSONObject();
-                    jsonPayload.put("status", status);
-
-                    JSONObject jsonInput = new JSONObject();
-                    jsonInput.put("input", jsonPayload);
-
-                    payload = jsonInput.toString();
-                } catch (Exception ex) {
-                    Helpers.storeLog("fcm", "Error sending status http", ex.getMessage());
-                }
-
-                ConnectionHTTP.sendHttpResponsePolicies(context, taskId, payload, sessionToken, new ConnectionHTTP.DataCallback() {
-                    @Override
-                    public void callback(String data) {
-                        Helpers.storeLog("fcm", "http response from policy", data);
-                    }
-                });
-            }
+        OutboxWorker.getInstance(context).addTaskStatus(taskId, status);
+    }
 
-            @Override
-            public void onError(int type, String error) {
-                Helpers.storeLog("fcm", "problem with session token", error);
-            }
-        });
+    /**
+     * A final status closes the task, the older statuses can not replace it
+     * @param status String one of the FEEDBACK_ values
+     * @return boolean true if done, failed or canceled
+     */
+    public static boolean isFinalStatus(String status) {
+        return FEEDBACK_DONE.equals(status) || FEEDBACK_FAILED.equals(status) || FEEDBACK_CANCELED.equals(status);
     }
 
     private void policyResponse(String status) {
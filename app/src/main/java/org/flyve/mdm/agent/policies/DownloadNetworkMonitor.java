@@ -0,0 +1,136 @@
+package org.flyve.mdm.agent.policies;
+
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+import org.flyve.mdm.agent.core.http.DownloadPolicy;
+import org.flyve.mdm.agent.utils.ConnectionHTTP;
+import org.flyve.mdm.agent.utils.FlyveLog;
+import org.flyve.mdm.agent.utils.Helpers;
+
+/**
+ * Follow the network of the device for the downloads: the rate of the DownloadPolicy is
+ * changed with the network and the downloads deferred on mobile data start on Wi-Fi.
+ * The CONNECTIVITY_ACTION of the manifest is not delivered from Android 7, the callback
+ * is registered at runtime by both flavors
+ */
+public class DownloadNetworkMonitor {
+
+    private static DownloadNetworkMonitor instance;
+
+    private final Context context;
+    private int networkClass = -1;
+
+    private DownloadNetworkMonitor(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Register the network callback and apply the current network, the downloads deferred
+     * by the last run start now if the device is on Wi-Fi
+     * @param context the context
+     */
+    public static synchronized void start(Context context) {
+        if(instance != null) {
+            return;
+        }
+        instance = new DownloadNetworkMonitor(context);
+        instance.register();
+        instance.onNetworkChanged();
+    }
+
+    private void register() {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                registerNetworkCallback();
+            } else {
+                context.registerReceiver(new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        onNetworkChanged();
+                    }
+                }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            }
+        } catch (Exception ex) {
+            FlyveLog.e(this.getClass().getName() + ", register", ex.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                onNetworkChanged();
+            }
+
+            // metered or not is known here, onAvailable can come before
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                onNetworkChanged();
+            }
+
+            @Override
+            public void onLost(Network network) {
+                onNetworkChanged();
+            }
+        };
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            // only the network used by the downloads
+            cm.registerDefaultNetworkCallback(callback);
+        } else {
+            cm.registerNetworkCallback(new NetworkRequest.Builder().build(), callback);
+        }
+    }
+
+    /**
+     * Runs on the thread of the callback
+     */
+    private void onNetworkChanged() {
+        int current = Helpers.getNetworkClass(context);
+        synchronized (this) {
+            if(current == networkClass) {
+                return;
+            }
+            networkClass = current;
+        }
+
+        ConnectionHTTP.setDownloadPolicy(DownloadPolicy.forNetwork(current));
+        if(current == DownloadPolicy.NETWORK_UNMETERED && Helpers.isOnline(context)) {
+            PoliciesFiles.resumeDeferred(context);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.flyve.mdm.agent.policies;
+
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.data.database.InboundMessageData;
+import org.flyve.mdm.agent.utils.FlyveLog;
+import org.json.JSONObject;
+
+import java.security.MessageDigest;
+
+/**
+ * Skip the messages already applied: QoS 1 redelivery, the retained messages received
+ * again after each reconnection and the FCM duplicates. A message is known by its topic,
+ * its task and the hash of its body, the same body on the same task is executed once.
+ * A command without task (lock, wipe) is only skipped for a short time, the same command
+ * sent again later by the administrator is executed.
+ * Ping, geolocate and inventory are requests, each one is answered
+ */
+public class InboundMessageFilter {
+
+    // covers the redelivery after a reconnection, not a new order of the administrator
+    private static final long TASKLESS_TTL_MS = 2 * 60 * 1000;
+
+    private InboundMessageFilter() {
+    }
+
+    /**
+     * Runs on the PolicyExecutor thread
+     * @param context the context
+     * @param action int PoliciesAsyncTask action of the topic
+     * @param topic String topic of the message
+     * @param message String body of the message
+     * @return boolean true if the message must be executed
+     */
+    public static boolean accept(Context context, int action, String topic, String message) {
+        if(isRequest(action)) {
+            return true;
+        }
+
+        try {
+            String taskId = getTaskId(topic, message);
+            String key = topic + "#" + taskId;
+            long ttl = taskId.isEmpty() ? TASKLESS_TTL_MS : 0;
+            if(!new InboundMessageData(context).isReceived(key, hash(message), ttl)) {
+                return true;
+            }
+            FlyveLog.d("Message already applied: " + key);
+            return false;
+        } catch (Exception ex) {
+            // better to apply a policy twice than to lose it
+            FlyveLog.e(InboundMessageFilter.class.getName() + ", accept", ex.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Remember the message once its action is done, a message interrupted by the end of the
+     * process is not saved and is executed when the InboundQueue gives it again
+     * Runs on the PolicyExecutor thread, after accept
+     * @param context the context
+     * @param action int PoliciesAsyncTask action of the topic
+     * @param topic String topic of the message
+     * @param message String body of the message
+     */
+    public static void applied(Context context, int action, String topic, String message) {
+        if(isRequest(action)) {
+            return;
+        }
+
+        try {
+            new InboundMessageData(context).markReceived(topic + "#" + getTaskId(topic, message), hash(message));
+        } catch (Exception ex) {
+            FlyveLog.e(InboundMessageFilter.class.getName() + ", applied", ex.getMessage());
+        }
+    }
+
+    private static boolean isRequest(int action) {
+        return action == PoliciesAsyncTask.PING
+                || action == PoliciesAsyncTask.GEOLOCATE
+                || action == PoliciesAsyncTask.INVENTORY;
+    }
+
+    private static String getTaskId(String topic, String message) {
+        String taskId = TopicRouter.parse(topic).taskId;
+        if(taskId.isEmpty() && message.startsWith("{")) {
+            try {
+                taskId = new JSONObject(message).optString("taskId");
+            } catch (Exception ex) {
+                taskId = "";
+            }
+        }
+        return taskId;
+    }
+
+    private static String hash(String message) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        byte[] hash = digest.digest(message.getBytes("UTF-8"));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,156 @@
+package org.flyve.mdm.agent.policies;
+
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.data.database.QueuedMessageData;
+import org.flyve.mdm.agent.data.database.entity.QueuedMessage;
+import org.flyve.mdm.agent.utils.FlyveLog;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Durable queue between the MQTT service and the policies. A message is saved as it
+ * arrives and processed one at a time on the PolicyExecutor thread, the next one
+ * is taken when the actions of the previous one are done. A burst waits in the queue
+ * and a message is removed only after it was processed, nothing is lost on a restart
+ */
+public class InboundQueue {
+
+    public interface MessageProcessor {
+        void process(String topic, String message);
+    }
+
+    private static InboundQueue instance;
+
+    private final QueuedMessageData queue;
+    // one thread keeps the order of arrival, a long policy does not delay the writes
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private MessageProcessor processor;
+    private boolean draining = false;
+
+    private InboundQueue(Context context) {
+        this.queue = new QueuedMessageData(context.getApplicationContext());
+    }
+
+    public static synchronized InboundQueue getInstance(Context context) {
+        if(instance == null) {
+            instance = new InboundQueue(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Set who processes the messages and start with the ones left by the last run
+     * @param processor MessageProcessor
+     */
+    public synchronized void setProcessor(MessageProcessor processor) {
+        this.processor = processor;
+        startDrain();
+    }
+
+    /**
+     * Save the message on the writer thread, the MQTT callback runs on the main thread.
+     * The MQTT service already stored and acknowledged the message before the callback
+     * @param topic String topic of the message
+     * @param message String body of the message
+     */
+    public void add(final String topic, final String message) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.add(topic, message);
+                } catch (Exception ex) {
+                    FlyveLog.e(InboundQueue.class.getName() + ", add", ex.getMessage());
+                    return;
+                }
+                synchronized (InboundQueue.this) {
+                    startDrain();
+                }
+            }
+        });
+    }
+
+    private void startDrain() {
+        if(draining || processor == null) {
+            return;
+        }
+        draining = true;
+        PolicyExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                next();
+            }
+        });
+    }
+
+    /**
+     * Process the oldest message, runs on the PolicyExecutor thread
+     */
+    private void next() {
+        final QueuedMessage message;
+        MessageProcessor current;
+        synchronized (this) {
+            // under the lock, a message added now starts a new drain
+            message = queue.getFirst();
+            current = processor;
+            if(message == null || current == null) {
+                draining = false;
+                return;
+            }
+        }
+
+        try {
+            current.process(message.topic, message.payload);
+        } catch (Exception ex) {
+            FlyveLog.e(this.getClass().getName() + ", next", ex.getMessage());
+        }
+
+        // the actions of the message were queued on the same thread, they run before this
+        PolicyExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                queue.delete(message);
+                next();
+            }
+        });
+    }
+
+    /**
+     * Remove the saved messages, after the ones still being written
+     */
+    public void clear() {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (InboundQueue.this) {
+                    queue.deleteAll();
+                }
+            }
+        });
+    }
+}
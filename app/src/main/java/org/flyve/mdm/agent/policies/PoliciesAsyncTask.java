@@ -4,17 +4,21 @@ import android.content.Context;
 import android.location.Location;
 import android.os.AsyncTask;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
 import android.provider.Settings;
 
 import org.flyve.inventory.InventoryTask;
 import org.flyve.mdm.agent.core.Routes;
-import org.flyve.mdm.agent.core.enrollment.EnrollmentHelper;
+import org.flyve.mdm.agent.core.http.HttpDispatcher;
+import org.flyve.mdm.agent.core.http.SessionManager;
+import org.flyve.mdm.agent.core.outbox.OutboxWorker;
 import org.flyve.mdm.agent.data.database.ApplicationData;
 import org.flyve.mdm.agent.data.database.FileData;
+import org.flyve.mdm.agent.data.database.InboundMessageData;
 import org.flyve.mdm.agent.data.database.MqttData;
 import org.flyve.mdm.agent.data.database.PoliciesData;
+import org.flyve.mdm.agent.data.database.TaskStatusData;
+import org.flyve.mdm.agent.data.database.entity.Outbox;
+import org.flyve.mdm.agent.data.localstorage.AppData;
 import org.flyve.mdm.agent.receivers.FlyveAdminReceiver;
 import org.flyve.mdm.agent.ui.LockActivity;
 import org.flyve.mdm.agent.ui.MDMAgent;
@@ -36,18 +40,28 @@ public class PoliciesAsyncTask extends AsyncTask<Object, Integer, Boolean> {
     public static final int WIPE = 6;
     public static final int LOCK = 7;
 
-    private Handler mHandler = new Handler(Looper.getMainLooper());
-    private int priority = 1;
+    private static final int POLICY_PRIORITY = 1;
 
     protected Boolean doInBackground(Object... object) {
+        dispatch((Context) object[0], (Integer) object[1], (String) object[2], (String) object[3]);
+        return true;
+    }
 
-        final Context context = (Context) object[0];
-        final Integer action = (Integer) object[1];
-        final String topic = (String) object[2];
-        final String message = (String) object[3];
-
-        mHandler.post(new Runnable() {
+    /**
+     * Run the action on the PolicyExecutor thread, only the UI and the location
+     * listeners go to the main thread
+     * @param context the context
+     * @param action int one of the actions of this class
+     * @param topic String topic of the message
+     * @param message String body of the message
+     */
+    public static void dispatch(final Context context, final int action, final String topic, final String message) {
+        PolicyExecutor.getInstance().execute(new Runnable() {
             public void run() {
+                // redelivered by the broker or by FCM, already applied
+                if(!InboundMessageFilter.accept(context, action, topic, message)) {
+                    return;
+                }
 
                 switch (action)
                 {
@@ -58,33 +72,39 @@ public class PoliciesAsyncTask extends AsyncTask<Object, Integer, Boolean> {
                                 try {
                                     JSONObject jsonObj = new JSONObject(message);
                                     if (jsonObj.has("lock")) {
-                                        String lock = jsonObj.getString("lock");
-                                        AndroidPolicies androidPolicies = new AndroidPolicies(context, FlyveAdminReceiver.class);
-
-                                        if(lock.equalsIgnoreCase("now")) {
-                                            //lock screen
-                                            androidPolicies.lockScreen(LockActivity.class,context);
-                                            //lock device
-                                            androidPolicies.lockDevice();
-                                        } else {
-
-                                            //unlock screen
-                                            if (Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M
-                                                    && Settings.canDrawOverlays(context)){
-                                                try{
-                                                    MDMAgent mainActivity = ((MDMAgent)
-                                                            context);
-                                                    mainActivity.getLockActivity().unlockScreen();
-                                                }catch (Exception e){
-
+                                        final String lock = jsonObj.getString("lock");
+                                        final AndroidPolicies androidPolicies = new AndroidPolicies(context, FlyveAdminReceiver.class);
+
+                                        // the lock screen is an activity
+                                        PolicyExecutor.getInstance().runOnMainThread(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                if(lock.equalsIgnoreCase("now")) {
+                                                    //lock screen
+                                                    androidPolicies.lockScreen(LockActivity.class,context);
+                                                    //lock device
+                                                    androidPolicies.lockDevice();
+                                                } else {
+
+                                                    //unlock screen
+                                                    if (Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M
+                                                            && Settings.canDrawOverlays(context)){
+                                                        try{
+                                                            MDMAgent mainActivity = ((MDMAgent)
+                                                                    context);
+                                                            mainActivity.getLockActivity().unlockScreen();
+                                                        }catch (Exception e){
+
+                                                        }
+
+                                                    }
+                                                    //unlock device
+                                                    androidPolicies.unlockDevice();
+
+                                                    Helpers.sendBroadcast("unlock", "org.flyvemdm.finishlock", context);
                                                 }
-
                                             }
-                                            //unlock device
-                                            androidPolicies.unlockDevice();
-
-                                            Helpers.sendBroadcast("unlock", "org.flyvemdm.finishlock", context);
-                                        }
+                                        });
                                     }
                                 } catch (Exception ex) {
                                     FlyveLog.e(this.getClass().getName() + ", LOCK ", ex.getMessage());
@@ -97,7 +117,10 @@ public class PoliciesAsyncTask extends AsyncTask<Object, Integer, Boolean> {
                             Routes routes = new Routes(context);
                             MqttData cache = new MqttData(context);
                             String url = routes.pluginFlyvemdmAgent(cache.getAgentId());
-                            pluginHttpResponse(context, url, data);
+                            pluginHttpResponse(context, Outbox.KIND_PING, url, data, HttpDispatcher.PRIORITY_LOW);
+
+                            // debug log only, a row on the database for each ping would grow it without end
+                            FlyveLog.d("Traffic report: " + ConnectionHTTP.getTrafficReport());
                         }
                         break;
 
@@ -126,87 +149,100 @@ public class PoliciesAsyncTask extends AsyncTask<Object, Integer, Boolean> {
                         new FileData(context).deleteAll();
                         new MqttData(context).deleteAll();
                         new PoliciesData(context).deleteAll();
+                        new TaskStatusData(context).deleteAll();
+                        new InboundMessageData(context).deleteAll();
+                        OutboxWorker.getInstance(context).clear();
+                        InboundQueue.getInstance(context).clear();
+                        new AppData(context).setMqttClientId("");
+                        SessionManager.getInstance().clear();
+                        ConnectionHTTP.clearMetadataCache(context);
 
                     }
                     break;
 
                     case GEOLOCATE:
                         {
-                            FastLocationProvider fastLocationProvider = new FastLocationProvider();
-                            Routes routes = new Routes(context);
-                            final String url = routes.pluginFlyvemdmGeolocation();
-
-                            boolean isAvailable = fastLocationProvider.getLocation(context, new FastLocationProvider.LocationResult() {
+                            // the location listeners need the looper of the main thread
+                            PolicyExecutor.getInstance().runOnMainThread(new Runnable() {
                                 @Override
-                                public void gotLocation(Location location) {
-                                    if(location == null) {
-                                        FlyveLog.e(this.getClass().getName() + ", sendGPS", "without location yet...");
-                                        //{"input":{"_agents_id":":id","_datetime":":string","_gps":"off"}}
+                                public void run() {
+                                    FastLocationProvider fastLocationProvider = new FastLocationProvider();
+                                    Routes routes = new Routes(context);
+                                    final String url = routes.pluginFlyvemdmGeolocation();
+
+                                    boolean isAvailable = fastLocationProvider.getLocation(context, new FastLocationProvider.LocationResult() {
+                                        @Override
+                                        public void gotLocation(Location location) {
+                                            if(location == null) {
+                                                FlyveLog.e(this.getClass().getName() + ", sendGPS", "without location yet...");
+                                                //{"input":{"_agents_id":":id","_datetime":":string","_gps":"off"}}
+
+                                                try {
+                                                    JSONObject jsonPayload = new JSONObject();
+
+                                                    jsonPayload.put("_datetime", Helpers.getUnixTime(context));
+                                                    jsonPayload.put("_agents_id", new MqttData(context).getAgentId());
+                                                    jsonPayload.put("computers_id", new MqttData(context).getComputersId());
+                                                    jsonPayload.put("_gps", "off");
+
+                                                    JSONObject jsonInput = new JSONObject();
+                                                    jsonInput.put("input", jsonPayload);
+
+                                                    String payload = jsonInput.toString();
+                                                    pluginHttpResponse(context, Outbox.KIND_GEOLOCATION, url, payload, HttpDispatcher.PRIORITY_LOW);
+                                                } catch (Exception ex) {
+                                                    Helpers.storeLog("fcm", "Error on GPS location", ex.getMessage());
+                                                }
 
-                                        try {
-                                            JSONObject jsonPayload = new JSONObject();
+                                            } else {
 
-                                            jsonPayload.put("_datetime", Helpers.getUnixTime(context));
-                                            jsonPayload.put("_agents_id", new MqttData(context).getAgentId());
-                                            jsonPayload.put("computers_id", new MqttData(context).getComputersId());
-                                            jsonPayload.put("_gps", "off");
+                                                try {
+                                                    String latitude = String.valueOf(location.getLatitude());
+                                                    String longitude = String.valueOf(location.getLongitude());
 
-                                            JSONObject jsonInput = new JSONObject();
-                                            jsonInput.put("input", jsonPayload);
+                                                    //"{"input":{"_agents_id":":id","_datetime":":string","latitude":":float","longitude":":float"}}"
+                                                    JSONObject jsonGPS = new JSONObject();
 
-                                            String payload = jsonInput.toString();
-                                            pluginHttpResponse(context, url, payload);
-                                        } catch (Exception ex) {
-                                            Helpers.storeLog("fcm", "Error on GPS location", ex.getMessage());
-                                        }
+                                                    jsonGPS.put("latitude", latitude);
+                                                    jsonGPS.put("longitude", longitude);
+                                                    jsonGPS.put("_datetime", Helpers.getUnixTime(context));
+                                                    jsonGPS.put("_agents_id", new MqttData(context).getAgentId());
+                                                    jsonGPS.put("computers_id", new MqttData(context).getComputersId());
 
-                                    } else {
+                                                    JSONObject jsonInput = new JSONObject();
+                                                    jsonInput.put("input", jsonGPS);
 
-                                        try {
-                                            String latitude = String.valueOf(location.getLatitude());
-                                            String longitude = String.valueOf(location.getLongitude());
+                                                    String payload = jsonInput.toString();
+                                                    pluginHttpResponse(context, Outbox.KIND_GEOLOCATION, url, payload, HttpDispatcher.PRIORITY_LOW);
 
-                                            //"{"input":{"_agents_id":":id","_datetime":":string","latitude":":float","longitude":":float"}}"
-                                            JSONObject jsonGPS = new JSONObject();
+                                                } catch (Exception ex) {
+                                                    FlyveLog.e(this.getClass().getName() + ", sendGPS", ex.getMessage());
+                                                    Helpers.storeLog("fcm", "Error on GPS location", ex.getMessage());
+                                                }
+                                            }
+                                        }
+                                    });
 
-                                            jsonGPS.put("latitude", latitude);
-                                            jsonGPS.put("longitude", longitude);
-                                            jsonGPS.put("_datetime", Helpers.getUnixTime(context));
-                                            jsonGPS.put("_agents_id", new MqttData(context).getAgentId());
-                                            jsonGPS.put("computers_id", new MqttData(context).getComputersId());
+                                    if(!isAvailable) {
+                                        try {
+                                            JSONObject jsonPayload = new JSONObject();
 
+                                            jsonPayload.put("_datetime", Helpers.getUnixTime(context));
+                                            jsonPayload.put("_agents_id", new MqttData(context).getAgentId());
+                                            jsonPayload.put("_gps", "off");
+                                            jsonPayload.put("computers_id", new MqttData(context).getComputersId());
+                                    
                                             JSONObject jsonInput = new JSONObject();
-                                            jsonInput.put("input", jsonGPS);
+                                            jsonInput.put("input", jsonPayload);
 
                                             String payload = jsonInput.toString();
-                                            pluginHttpResponse(context, url, payload);
-
+                                            pluginHttpResponse(context, Outbox.KIND_GEOLOCATION, url, payload, HttpDispatcher.PRIORITY_LOW);
                                         } catch (Exception ex) {
-                                            FlyveLog.e(this.getClass().getName() + ", sendGPS", ex.getMessage());
                                             Helpers.storeLog("fcm", "Error on GPS location", ex.getMessage());
                                         }
                                     }
                                 }
                             });
-
-                            if(!isAvailable) {
-                                try {
-                                    JSONObject jsonPayload = new JSONObject();
-
-                                    jsonPayload.put("_datetime", Helpers.getUnixTime(context));
-                                    jsonPayload.put("_agents_id", new MqttData(context).getAgentId());
-                                    jsonPayload.put("_gps", "off");
-                                    jsonPayload.put("computers_id", new MqttData(context).getComputersId());
-                                    
-                                    JSONObject jsonInput = new JSONObject();
-                                    jsonInput.put("input", jsonPayload);
-
-                                    String payload = jsonInput.toString();
-                                    pluginHttpResponse(context, url, payload);
-                                } catch (Exception ex) {
-                                    Helpers.storeLog("fcm", "Error on GPS location", ex.getMessage());
-                                }
-                            }
                         }
                         break;
                     case INVENTORY :
@@ -228,7 +264,7 @@ public class PoliciesAsyncTask extends AsyncTask<Object, Integer, Boolean> {
                                     jsonInput.put("input", jsonPayload);
 
                                     String payload = jsonInput.toString();
-                                    pluginHttpResponse(context, url, payload);
+                                    pluginHttpResponse(context, Outbox.KIND_INVENTORY, url, payload, HttpDispatcher.PRIORITY_LOW);
                                     Helpers.storeLog("fcm", "Inventory", "Inventory Send");
                                 } catch (Exception ex) {
                                     Helpers.storeLog("fcm", "Error on json createInventory", ex.getMessage());
@@ -241,145 +277,23 @@ public class PoliciesAsyncTask extends AsyncTask<Object, Integer, Boolean> {
                             }
                         });
                     }
+                    break;
                     case POLICIES:
                     {
-                        // Policy/passwordEnabled
-                        callPolicy(context, PasswordEnablePolicy.class, PasswordEnablePolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/passwordQuality
-                        callPolicy(context, PasswordQualityPolicy.class, PasswordQualityPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/passwordMinLength
-                        callPolicy(context, PasswordMinLengthPolicy.class, PasswordMinLengthPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/passwordMinLowerCase
-                        callPolicy(context, PasswordMinLowerCasePolicy.class, PasswordMinLowerCasePolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/passwordMinUpperCase
-                        callPolicy(context, PasswordMinUpperCasePolicy.class, PasswordMinUpperCasePolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/passwordMinNonLetter
-                        callPolicy(context, PasswordMinNonLetterPolicy.class, PasswordMinNonLetterPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/passwordMinLetters
-                        callPolicy(context, PasswordMinLetterPolicy.class, PasswordMinLetterPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/passwordMinNumeric
-                        callPolicy(context, PasswordMinNumericPolicy.class, PasswordMinNumericPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/passwordMinSymbols
-                        callPolicy(context, PasswordMinSymbolsPolicy.class, PasswordMinSymbolsPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/MaximumFailedPasswordsForWipe
-                        callPolicy(context, MaximumFailedPasswordForWipePolicy.class, MaximumFailedPasswordForWipePolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/MaximumTimeToLock
-                        callPolicy(context, MaximumTimeToLockPolicy.class, MaximumTimeToLockPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/storageEncryption
-                        callPolicy(context, StorageEncryptionPolicy.class, StorageEncryptionPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableCamera
-                        callPolicy(context, CameraPolicy.class, CameraPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableBluetooth
-                        callPolicy(context, BluetoothPolicy.class, BluetoothPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableHostpotTethering
-                        callPolicy(context, HostpotTetheringPolicy.class, HostpotTetheringPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableRoaming
-                        callPolicy(context, RoamingPolicy.class, RoamingPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableWifi
-                        callPolicy(context, WifiPolicy.class, WifiPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableSpeakerphone
-                        callPolicy(context, SpeakerphonePolicy.class, SpeakerphonePolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableCreateVpnProfiles
-                        callPolicy(context, VPNPolicy.class, VPNPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableStreamMusic
-                        callPolicy(context, StreamMusicPolicy.class, StreamMusicPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableStreamRing
-                        callPolicy(context, StreamRingPolicy.class, StreamRingPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableStreamAlarm
-                        callPolicy(context, StreamAlarmPolicy.class, StreamAlarmPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableStreamNotification
-                        callPolicy(context, StreamNotificationPolicy.class, StreamNotificationPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableStreamAccessibility
-                        callPolicy(context, StreamAccessibilityPolicy.class, StreamAccessibilityPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableStreamVoiceCall
-                        callPolicy(context, StreamVoiceCallPolicy.class, StreamVoiceCallPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableStreamDTMF
-                        callPolicy(context, StreamVoiceCallPolicy.class, StreamVoiceCallPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableScreenCapture
-                        //  ROOT REQUIRED
-                        callPolicy(context, ScreenCapturePolicy.class, ScreenCapturePolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableAirplaneMode
-                        //  ROOT REQUIRED
-                        callPolicy(context, AirplaneModePolicy.class, AirplaneModePolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableGPS
-                        //  ROOT REQUIRED
-                        callPolicy(context, GPSPolicy.class, GPSPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableMobileLine
-                        // ROOT
-                        callPolicy(context, MobileLinePolicy.class, MobileLinePolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableNfc
-                        // ROOT
-                        callPolicy(context, NFCPolicy.class, NFCPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableStatusBar
-                        // ROOT
-                        callPolicy(context, StatusBarPolicy.class, StatusBarPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableUsbMtp
-                        // ROOT
-                        callPolicy(context, UsbMtpPolicy.class, UsbMtpPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableUsbPtp
-                        // ROOT
-                        callPolicy(context, UsbPtpPolicy.class, UsbPtpPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/disableUsbAdb
-                        // ROOT
-                        callPolicy(context, UsbAdbPolicy.class, UsbAdbPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/deployApp
-                        // ROOT
-                        callPolicy(context, DeployAppPolicy.class, DeployAppPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/removeApp
-                        // ROOT
-                        callPolicy(context, RemoveAppPolicy.class, RemoveAppPolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/deployFile
-                        // ROOT
-                        callPolicy(context, DeployFilePolicy.class, DeployFilePolicy.POLICY_NAME, priority, topic, message);
-
-                        // Policy/removeFile
-                        // ROOT
-                        callPolicy(context, RemoveFilePolicy.class, RemoveFilePolicy.POLICY_NAME, priority, topic, message);
+                        // Policy/{policyName}/Task/{taskId}
+                        String policyName = TopicRouter.parse(topic).name;
+                        for (PolicyRegistry.PolicyFactory factory : PolicyRegistry.get(policyName)) {
+                            callPolicy(context, factory, POLICY_PRIORITY, topic, message);
+                        }
                     }
                     break;
                     default:
                 }
+
+                // saved only now, a message interrupted by the end of the process is applied again
+                InboundMessageFilter.applied(context, action, topic, message);
             }
         });
-
-        return true;
     }
 
     protected void onProgressUpdate(Integer... progress) {
@@ -401,70 +315,68 @@ public class PoliciesAsyncTask extends AsyncTask<Object, Integer, Boolean> {
             Routes routes = new Routes(context);
             MqttData cache = new MqttData(context);
             String url = routes.pluginFlyvemdmAgent(cache.getAgentId());
-            pluginHttpResponse(context, url, payload);
-        } catch (Exception ex) {
-            Helpers.storeLog("fcm", "Error sending status http", ex.getMessage());
-        }
-    }
 
-    public static void pluginHttpResponse(final Context context, final String url, final String data) {
-        Helpers.storeLog("fcm", "http response payload", data);
-
-        EnrollmentHelper enrollmentHelper = new EnrollmentHelper(context);
-        enrollmentHelper.getActiveSessionToken(new EnrollmentHelper.EnrollCallBack() {
-            @Override
-            public void onSuccess(String sessionToken) {
-                ConnectionHTTP.sendHttpResponse(context, url, data, sessionToken, new ConnectionHTTP.DataCallback() {
-                    @Override
-                    public void callback(String data) {
-                        Helpers.storeLog("fcm", "http response from url", data);
-                    }
-                });
+            if(status) {
+                pluginHttpResponse(context, Outbox.KIND_ONLINE, url, payload, HttpDispatcher.PRIORITY_NORMAL);
+                return;
             }
 
-            @Override
-            public void onError(int type, String error) {
-                Helpers.storeLog("fcm", "active session fail", data);
+            // going offline comes from wipe / unenroll, the enrollment is removed just after
+            // so it is sent now instead of waiting on the outbox
+            Helpers.storeLog("fcm", "http response payload", payload);
+            if(!OutboxWorker.getInstance(context).sendNow(Outbox.KIND_ONLINE, url, payload, HttpDispatcher.PRIORITY_CRITICAL)) {
+                Helpers.storeLog("fcm", "Error sending status http", "offline status not delivered");
             }
-        });
+        } catch (Exception ex) {
+            Helpers.storeLog("fcm", "Error sending status http", ex.getMessage());
+        }
+    }
 
+    public static void pluginHttpResponse(final Context context, final String kind, final String url, final String data) {
+        pluginHttpResponse(context, kind, url, data, HttpDispatcher.PRIORITY_NORMAL);
     }
 
-    public static void callPolicy(Context context, Class<? extends BasePolicies> classPolicy, String policyName, int policyPriority, String topic, String messageBody) {
+    /**
+     * Send the data to the plugin, it is saved on the outbox until the server gets it
+     * @param kind String one of the Outbox KIND_ values
+     * @param priority int HttpDispatcher priority
+     */
+    public static void pluginHttpResponse(final Context context, final String kind, final String url, final String data, final int priority) {
+        Helpers.storeLog("fcm", "http response payload", data);
+        OutboxWorker.getInstance(context).addHttp(kind, url, data, priority);
+    }
 
-        if(topic.toLowerCase().contains(policyName.toLowerCase())) {
+    /**
+     * Create the handler of the policy and execute it with the value of the message
+     * @param factory PolicyFactory from the PolicyRegistry
+     */
+    public static void callPolicy(Context context, PolicyRegistry.PolicyFactory factory, int policyPriority, String topic, String messageBody) {
 
-            FlyveLog.d("Call policies "+messageBody);
-            BasePolicies policies;
+        FlyveLog.d("Call policies "+messageBody);
+        BasePolicies policies = factory.create(context);
 
-            try {
-                policies = classPolicy.getDeclaredConstructor(Context.class).newInstance(context);
-            } catch (Exception ex) {
-                return;
-            }
+        if(messageBody.isEmpty()) {
+            policies.remove();
+            return;
+        }
 
-            if(messageBody.isEmpty()) {
-                policies.remove();
-                return;
+        try {
+            JSONObject jsonObj = new JSONObject(messageBody);
+            String policyName = policies.policyName;
+
+            if(jsonObj.has(policyName)) {
+                Object value = jsonObj.get(policyName);
+                String taskId = jsonObj.getString("taskId");
+
+                // execute the policy
+                policies.setParameters(topic, taskId, messageBody);
+                policies.setValue(value);
+                policies.setPriority(policyPriority);
+                policies.execute();
             }
+        } catch (Exception ex) {
+            FlyveLog.e("PoliciesAsyncTask", ", Unenroll ",ex.getMessage());
 
-            try {
-                JSONObject jsonObj = new JSONObject(messageBody);
-
-                if(jsonObj.has(policyName)) {
-                    Object value = jsonObj.get(policyName);
-                    String taskId = jsonObj.getString("taskId");
-
-                    // execute the policy
-                    policies.setParameters(topic, taskId, messageBody);
-                    policies.setValue(value);
-                    policies.setPriority(policyPriority);
-                    policies.execute();
-                }
-            } catch (Exception ex) {
-                FlyveLog.e("PoliciesAsyncTask", ", Unenroll ",ex.getMessage());
-
-            }
         }
     }
 }
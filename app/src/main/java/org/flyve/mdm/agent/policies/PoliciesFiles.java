@@ -29,12 +29,17 @@ import android.os.PowerManager;
 
 import org.flyve.mdm.agent.R;
 import org.flyve.mdm.agent.core.Routes;
+import org.flyve.mdm.agent.core.enrollment.EnrollmentHelper;
+import org.flyve.mdm.agent.core.http.DownloadPolicy;
+import org.flyve.mdm.agent.core.http.JsonFields;
 import org.flyve.mdm.agent.data.database.entity.Application;
 import org.flyve.mdm.agent.data.database.setup.AppDataBase;
+import org.flyve.mdm.agent.data.localstorage.DeferredDownloadData;
 import org.flyve.mdm.agent.utils.ConnectionHTTP;
 import org.flyve.mdm.agent.utils.FlyveLog;
 import org.flyve.mdm.agent.utils.Helpers;
 import org.flyve.mdm.agent.utils.StorageFolder;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
@@ -47,6 +52,10 @@ public class PoliciesFiles extends AsyncTask<String, Integer, Boolean> {
     private String taskId;
     private String type;
     private String status;
+    private String target;
+    private String id;
+    private String versionCode;
+    private boolean deferred;
 
 
 
@@ -81,7 +90,10 @@ public class PoliciesFiles extends AsyncTask<String, Integer, Boolean> {
         }
 
         this.type = args[0];
+        this.target = args[1];
+        this.id = args[2];
         this.taskId = args[4];
+        this.versionCode = args.length > 5 ? args[5] : "";
         this.status = BasePolicies.FEEDBACK_WAITING;
 
         if(type.equals("file")) {
@@ -96,6 +108,56 @@ public class PoliciesFiles extends AsyncTask<String, Integer, Boolean> {
         if(result){
             BasePolicies.sendTaskStatusbyHttp(this.context, this.status, this.taskId);
         }
+
+        // the next deferred download starts when this one ends on Wi-Fi
+        if(!deferred && Helpers.getNetworkClass(context) == DownloadPolicy.NETWORK_UNMETERED) {
+            resumeDeferred(context);
+        }
+    }
+
+    /**
+     * Start again the downloads deferred until an unmetered network
+     * @param context
+     */
+    public static void resumeDeferred(final Context context) {
+        final JSONArray downloads = new DeferredDownloadData(context).takeAll();
+        if(downloads.length() == 0) {
+            return;
+        }
+
+        FlyveLog.i("Resume deferred downloads: " + downloads.length());
+        EnrollmentHelper sToken = new EnrollmentHelper(context);
+        sToken.getActiveSessionToken(new EnrollmentHelper.EnrollCallBack() {
+            @Override
+            public void onSuccess(String sessionToken) {
+                for (int i = 0; i < downloads.length(); i++) {
+                    JSONObject download = downloads.optJSONObject(i);
+                    if(download == null) {
+                        continue;
+                    }
+                    PoliciesFiles policiesFiles = new PoliciesFiles(context);
+                    policiesFiles.execute(download.optString("type"), download.optString("path"),
+                            download.optString("id"), sessionToken, download.optString("taskId"),
+                            download.optString("versionCode"));
+                }
+            }
+
+            @Override
+            public void onError(int type, String error) {
+                FlyveLog.e(PoliciesFiles.class.getName() + ", resumeDeferred", error);
+
+                // keep them for the next network change
+                DeferredDownloadData deferredData = new DeferredDownloadData(context);
+                for (int i = 0; i < downloads.length(); i++) {
+                    JSONObject download = downloads.optJSONObject(i);
+                    if(download != null) {
+                        deferredData.add(download.optString("type"), download.optString("path"),
+                                download.optString("id"), download.optString("taskId"),
+                                download.optString("versionCode"));
+                    }
+                }
+            }
+        });
     }
 
 
@@ -125,6 +187,8 @@ public class PoliciesFiles extends AsyncTask<String, Integer, Boolean> {
 
         if(!completeFilePath.isEmpty()){
             this.status = BasePolicies.FEEDBACK_DONE;
+        }else if(deferred){
+            this.status = BasePolicies.FEEDBACK_WAITING;
         }else{
             this.status = BasePolicies.FEEDBACK_FAILED;
         }
@@ -154,7 +218,7 @@ public class PoliciesFiles extends AsyncTask<String, Integer, Boolean> {
         final String url = routes.pluginFlyvemdmPackage(id);
         String completeFilePath = download(url, filePath, sessionToken, taskId);
         if(completeFilePath.isEmpty()) {
-            this.status = BasePolicies.FEEDBACK_FAILED;
+            this.status = deferred ? BasePolicies.FEEDBACK_WAITING : BasePolicies.FEEDBACK_FAILED;
         } else {
             if(Helpers.isSystemApp(context).equalsIgnoreCase("1")) {
                 // Silently for System apps
@@ -178,14 +242,16 @@ public class PoliciesFiles extends AsyncTask<String, Integer, Boolean> {
         HashMap<String, String> header = new HashMap();
         header.put("Session-Token", sessionToken);
 
-        String data = ConnectionHTTP.getSyncWebData(url, "GET",header);
-        if(data.contains("ERROR")) {
+        // only the fields used to name and verify the file are read from the metadata,
+        // a policy replayed after a reconnection gets it from the cache with a 304
+        JsonFields metadata = ConnectionHTTP.getSyncMetadataFields(context, url, header,
+                "name", "dl_filename", "package_name", "filesize", "sha256");
+        if(metadata.isError()) {
             Helpers.sendToNotificationBar(context, context.getResources().getString(R.string.download_file_fail));
-            FlyveLog.e(this.getClass().getName() + ", download", data + "\n" + url);
+            FlyveLog.e(this.getClass().getName() + ", download", metadata.getError() + "\n" + url);
         } else {
             try {
-                JSONObject jsonObjDownload = new JSONObject(data);
-                return getFile(jsonObjDownload, path, url, data, sessionToken, taskId);
+                return getFile(metadata, path, url, metadata.toString(), sessionToken, taskId);
             } catch (Exception ex) {
                 FlyveLog.e(this.getClass().getName() + ", download", ex.getMessage() + "\n" + url);
                 return "";
@@ -194,20 +260,20 @@ public class PoliciesFiles extends AsyncTask<String, Integer, Boolean> {
         return "";
     }
 
-    private String getFile(JSONObject jsonObjDownload, String path, String url, String data, String sessionToken, String taskId) {
+    private String getFile(JsonFields metadata, String path, String url, String data, String sessionToken, String taskId) {
 
         String fileName = "";
 
         try {
             // Both has name
-            if (jsonObjDownload.has("name")) {
-                fileName = jsonObjDownload.getString("name");
+            if (metadata.has("name")) {
+                fileName = metadata.getString("name");
             }
 
             // is APK / UPK
-            if (jsonObjDownload.has("dl_filename")) {
-                fileName = jsonObjDownload.getString("package_name");
-                if(jsonObjDownload.getString("dl_filename").contains(".apk")){
+            if (metadata.has("dl_filename")) {
+                fileName = metadata.getString("package_name");
+                if(metadata.getString("dl_filename").contains(".apk")){
                     fileName = fileName + ".apk";
                 }else{
                     fileName = fileName + ".upk";
@@ -215,6 +281,12 @@ public class PoliciesFiles extends AsyncTask<String, Integer, Boolean> {
 
             }
 
+            // without a name the path would be the folder itself
+            if(fileName.isEmpty()) {
+                FlyveLog.e(this.getClass().getName() + ", getFile", "No file name in the metadata\n" + url);
+                return "";
+            }
+
             // validating if folder exists or create
             new File(path).mkdirs();
 
@@ -250,7 +322,21 @@ public class PoliciesFiles extends AsyncTask<String, Integer, Boolean> {
 
             }
 
-            Boolean isSave = ConnectionHTTP.getSyncFile(url, filePath , sessionToken, new ConnectionHTTP.ProgressCallback() {
+            // size and hash are verified when the metadata has them
+            long expectedSize = metadata.optLong("filesize", -1);
+            String expectedSha256 = metadata.optString("sha256", "");
+
+            // the rate and the size limit depend on the network, Wi-Fi or mobile data
+            DownloadPolicy policy = DownloadPolicy.forNetwork(Helpers.getNetworkClass(context));
+            if(policy.shouldDefer(expectedSize)) {
+                FlyveLog.i("Download deferred until an unmetered network: " + fileName + " (" + expectedSize + " bytes)");
+                new DeferredDownloadData(context).add(type, target, id, taskId, versionCode);
+                this.deferred = true;
+                return "";
+            }
+
+            // large APKs and files are fetched in chunks at the same time
+            Boolean isSave = ConnectionHTTP.getSyncFile(url, filePath , sessionToken, expectedSize, expectedSha256, true, policy, new ConnectionHTTP.ProgressCallback() {
                 @Override
                 public void progress(int value) {
                     publishProgress(value);
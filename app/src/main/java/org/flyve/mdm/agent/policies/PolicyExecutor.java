@@ -0,0 +1,92 @@
+package org.flyve.mdm.agent.policies;
+
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.flyve.mdm.agent.utils.FlyveLog;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Run the commands and the policies on one background thread, in the order they arrive.
+ * Room, JSON and the inventory stay off the main thread, the calls that need the UI
+ * or a looper go back to it with runOnMainThread
+ */
+public class PolicyExecutor {
+
+    private static PolicyExecutor instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PolicyExecutor");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    });
+
+    private PolicyExecutor() {
+    }
+
+    public static synchronized PolicyExecutor getInstance() {
+        if(instance == null) {
+            instance = new PolicyExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Run on the policy thread, an exception does not stop the next tasks
+     * @param task Runnable
+     */
+    public void execute(final Runnable task) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Exception ex) {
+                    FlyveLog.e(PolicyExecutor.class.getName() + ", execute", ex.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Run the UI, the activities and the location listeners on the main thread
+     * @param task Runnable
+     */
+    public void runOnMainThread(Runnable task) {
+        if(Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+        } else {
+            mainHandler.post(task);
+        }
+    }
+}
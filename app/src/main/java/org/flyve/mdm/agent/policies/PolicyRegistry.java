@@ -0,0 +1,349 @@
+package org.flyve.mdm.agent.policies;
+
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Table of the policies by name, the handler of a policy is created without reflection
+ * and only for the policy of the message. A name can have more than one handler,
+ * passwordEnabled sets the password and its quality. A new policy is added here,
+ * PolicyRegistryTest fails when a policy of the package is missing
+ */
+public class PolicyRegistry {
+
+    public interface PolicyFactory {
+        BasePolicies create(Context context);
+    }
+
+    private static final Map<String, List<PolicyFactory>> FACTORIES = new HashMap<>();
+
+    static {
+        register(PasswordEnablePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new PasswordEnablePolicy(context);
+            }
+        });
+
+        register(PasswordQualityPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new PasswordQualityPolicy(context);
+            }
+        });
+
+        register(PasswordMinLengthPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new PasswordMinLengthPolicy(context);
+            }
+        });
+
+        register(PasswordMinLowerCasePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new PasswordMinLowerCasePolicy(context);
+            }
+        });
+
+        register(PasswordMinUpperCasePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new PasswordMinUpperCasePolicy(context);
+            }
+        });
+
+        register(PasswordMinNonLetterPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new PasswordMinNonLetterPolicy(context);
+            }
+        });
+
+        register(PasswordMinLetterPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new PasswordMinLetterPolicy(context);
+            }
+        });
+
+        register(PasswordMinNumericPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new PasswordMinNumericPolicy(context);
+            }
+        });
+
+        register(PasswordMinSymbolsPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new PasswordMinSymbolsPolicy(context);
+            }
+        });
+
+        register(MaximumFailedPasswordForWipePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new MaximumFailedPasswordForWipePolicy(context);
+            }
+        });
+
+        register(MaximumTimeToLockPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new MaximumTimeToLockPolicy(context);
+            }
+        });
+
+        register(StorageEncryptionPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new StorageEncryptionPolicy(context);
+            }
+        });
+
+        register(CameraPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new CameraPolicy(context);
+            }
+        });
+
+        register(BluetoothPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new BluetoothPolicy(context);
+            }
+        });
+
+        register(HostpotTetheringPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new HostpotTetheringPolicy(context);
+            }
+        });
+
+        register(RoamingPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new RoamingPolicy(context);
+            }
+        });
+
+        register(WifiPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new WifiPolicy(context);
+            }
+        });
+
+        register(SpeakerphonePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new SpeakerphonePolicy(context);
+            }
+        });
+
+        register(VPNPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new VPNPolicy(context);
+            }
+        });
+
+        register(StreamMusicPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new StreamMusicPolicy(context);
+            }
+        });
+
+        register(StreamRingPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new StreamRingPolicy(context);
+            }
+        });
+
+        register(StreamAlarmPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new StreamAlarmPolicy(context);
+            }
+        });
+
+        register(StreamNotificationPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new StreamNotificationPolicy(context);
+            }
+        });
+
+        register(StreamAccessibilityPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new StreamAccessibilityPolicy(context);
+            }
+        });
+
+        register(StreamVoiceCallPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new StreamVoiceCallPolicy(context);
+            }
+        });
+
+        register(StreamDTMFPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new StreamDTMFPolicy(context);
+            }
+        });
+
+        register(ScreenCapturePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new ScreenCapturePolicy(context);
+            }
+        });
+
+        register(AirplaneModePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new AirplaneModePolicy(context);
+            }
+        });
+
+        register(GPSPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new GPSPolicy(context);
+            }
+        });
+
+        register(MobileLinePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new MobileLinePolicy(context);
+            }
+        });
+
+        register(NFCPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new NFCPolicy(context);
+            }
+        });
+
+        register(StatusBarPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new StatusBarPolicy(context);
+            }
+        });
+
+        register(UsbMtpPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new UsbMtpPolicy(context);
+            }
+        });
+
+        register(UsbPtpPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new UsbPtpPolicy(context);
+            }
+        });
+
+        register(UsbAdbPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new UsbAdbPolicy(context);
+            }
+        });
+
+        register(DeployAppPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new DeployAppPolicy(context);
+            }
+        });
+
+        register(RemoveAppPolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new RemoveAppPolicy(context);
+            }
+        });
+
+        register(DeployFilePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new DeployFilePolicy(context);
+            }
+        });
+
+        register(RemoveFilePolicy.POLICY_NAME, new PolicyFactory() {
+            @Override
+            public BasePolicies create(Context context) {
+                return new RemoveFilePolicy(context);
+            }
+        });
+    }
+
+    private PolicyRegistry() {
+    }
+
+    private static void register(String policyName, PolicyFactory factory) {
+        String key = policyName.toLowerCase(Locale.US);
+        List<PolicyFactory> factories = FACTORIES.get(key);
+        if(factories == null) {
+            factories = new ArrayList<>();
+            FACTORIES.put(key, factories);
+        }
+        factories.add(factory);
+    }
+
+    /**
+     * Get the handlers of a policy
+     * @param policyName String name of the policy, the case is ignored
+     * @return List of factories, empty if the policy is unknown
+     */
+    public static List<PolicyFactory> get(String policyName) {
+        if(policyName == null) {
+            return Collections.emptyList();
+        }
+        List<PolicyFactory> factories = FACTORIES.get(policyName.toLowerCase(Locale.US));
+        return factories == null ? Collections.<PolicyFactory>emptyList() : factories;
+    }
+}
@@ -0,0 +1,169 @@
+package org.flyve.mdm.agent.policies;
+
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.flyve.mdm.agent.core.Routes;
+import org.flyve.mdm.agent.core.enrollment.EnrollmentHelper;
+import org.flyve.mdm.agent.core.http.Deadline;
+import org.flyve.mdm.agent.utils.ConnectionHTTP;
+import org.flyve.mdm.agent.utils.FlyveLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collect the status of the tasks during a short window and send them together
+ * A profile of many policies is reported with one initSession, one search and one update
+ * instead of a chain of requests for each policy
+ */
+public class TaskStatusBatcher {
+
+    // the policies of one message are applied within this time
+    private static final long WINDOW_MS = 300;
+    private static final int MAX_BATCH = 50;
+
+    private static TaskStatusBatcher instance;
+
+    private final Context context;
+    private final Handler handler;
+    private Map<String, String> statuses = new LinkedHashMap<>();
+    private Map<String, List<ConnectionHTTP.DataCallback>> callbacks = new HashMap<>();
+    private boolean scheduled;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private TaskStatusBatcher(Context context) {
+        this.context = context.getApplicationContext();
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized TaskStatusBatcher getInstance(Context context) {
+        if(instance == null) {
+            instance = new TaskStatusBatcher(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Add the status of a task to the next group, a newer status of the same task replaces the older one
+     * unless the older one is final
+     * @param taskId String id of the task
+     * @param status String one of the BasePolicies FEEDBACK_ values
+     * @param callback DataCallback with the response for this task, can be null
+     */
+    public void add(String taskId, String status, ConnectionHTTP.DataCallback callback) {
+        boolean full;
+        synchronized (this) {
+            String previous = statuses.get(taskId);
+            if(BasePolicies.isFinalStatus(status) || !BasePolicies.isFinalStatus(previous)) {
+                statuses.put(taskId, status);
+            }
+            if(callback != null) {
+                List<ConnectionHTTP.DataCallback> taskCallbacks = callbacks.get(taskId);
+                if(taskCallbacks == null) {
+                    taskCallbacks = new ArrayList<>();
+                    callbacks.put(taskId, taskCallbacks);
+                }
+                taskCallbacks.add(callback);
+            }
+
+            full = statuses.size() >= MAX_BATCH;
+            if(!full && !scheduled) {
+                scheduled = true;
+                handler.postDelayed(flushTask, WINDOW_MS);
+            }
+        }
+
+        if(full) {
+            flush();
+        }
+    }
+
+    /**
+     * Send the statuses collected now without waiting for the end of the window
+     */
+    public void flush() {
+        final Map<String, String> batch;
+        final Map<String, List<ConnectionHTTP.DataCallback>> batchCallbacks;
+        synchronized (this) {
+            handler.removeCallbacks(flushTask);
+            scheduled = false;
+            if(statuses.isEmpty()) {
+                return;
+            }
+            batch = statuses;
+            batchCallbacks = callbacks;
+            statuses = new LinkedHashMap<>();
+            callbacks = new HashMap<>();
+        }
+
+        FlyveLog.d("Send the status of " + batch.size() + " tasks");
+
+        // initSession, taskstatus search and update share the same deadline
+        final Deadline deadline = Deadline.after(Routes.TASK_STATUS_BUDGET);
+
+        EnrollmentHelper enrollmentHelper = new EnrollmentHelper(context);
+        enrollmentHelper.getActiveSessionToken(deadline, new EnrollmentHelper.EnrollCallBack() {
+            @Override
+            public void onSuccess(String sessionToken) {
+                ConnectionHTTP.sendHttpResponsePolicies(context, batch, sessionToken, deadline, new ConnectionHTTP.TaskStatusCallback() {
+                    @Override
+                    public void callback(String taskId, String data) {
+                        deliver(batchCallbacks.get(taskId), data);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(int type, String error) {
+                FlyveLog.e(TaskStatusBatcher.class.getName() + ", flush", "problem with session token: " + error);
+                for (List<ConnectionHTTP.DataCallback> taskCallbacks : batchCallbacks.values()) {
+                    deliver(taskCallbacks, ConnectionHTTP.failure(error));
+                }
+            }
+        });
+    }
+
+    private static void deliver(List<ConnectionHTTP.DataCallback> taskCallbacks, String data) {
+        if(taskCallbacks == null) {
+            return;
+        }
+        for (ConnectionHTTP.DataCallback callback : taskCallbacks) {
+            callback.callback(data);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.flyve.mdm.agent.policies;
+
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.utils.FlyveLog;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parse the topic of a MQTT or FCM message once and find its action in a table
+ * The topics are like {agent topic}/Command/Ping or {fleet topic}/Policy/disableCamera/Task/12,
+ * the command is compared as a whole segment so Command/Unlock is not taken as Command/Lock
+ */
+public class TopicRouter {
+
+    public static final int NONE = 0;
+    // subscribe is done by the MQTT client, it is not a PoliciesAsyncTask action
+    public static final int SUBSCRIBE = 8;
+
+    private static final String COMMAND = "command";
+    private static final String POLICY = "policy";
+    private static final String TASK = "task";
+
+    private static final Map<String, Integer> COMMANDS = new HashMap<>();
+
+    static {
+        COMMANDS.put("ping", PoliciesAsyncTask.PING);
+        COMMANDS.put("geolocate", PoliciesAsyncTask.GEOLOCATE);
+        COMMANDS.put("inventory", PoliciesAsyncTask.INVENTORY);
+        COMMANDS.put("wipe", PoliciesAsyncTask.WIPE);
+        COMMANDS.put("lock", PoliciesAsyncTask.LOCK);
+        COMMANDS.put("unenroll", PoliciesAsyncTask.UNENROLL);
+        COMMANDS.put("subscribe", SUBSCRIBE);
+    }
+
+    private TopicRouter() {
+    }
+
+    /**
+     * A topic split in its parts
+     */
+    public static class Route {
+        public final int action;
+        // the command or the policy name as sent, empty if none
+        public final String name;
+        // the task of a policy, empty if none
+        public final String taskId;
+
+        Route(int action, String name, String taskId) {
+            this.action = action;
+            this.name = name;
+            this.taskId = taskId;
+        }
+
+        public boolean isPolicy() {
+            return action == PoliciesAsyncTask.POLICIES;
+        }
+    }
+
+    /**
+     * Find the action of a topic
+     * @param topic String topic of the message
+     * @return Route with NONE as action if the topic has no command or policy
+     */
+    public static Route parse(String topic) {
+        if(topic == null || topic.isEmpty()) {
+            return new Route(NONE, "", "");
+        }
+
+        String[] segments = topic.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            String segment = segments[i].toLowerCase(Locale.US);
+
+            if(COMMAND.equals(segment)) {
+                String name = segments[i + 1];
+                Integer action = COMMANDS.get(name.toLowerCase(Locale.US));
+                return new Route(action == null ? NONE : action, name, "");
+            }
+
+            if(POLICY.equals(segment)) {
+                String taskId = "";
+                if(i + 3 < segments.length && TASK.equalsIgnoreCase(segments[i + 2])) {
+                    taskId = segments[i + 3];
+                }
+                return new Route(PoliciesAsyncTask.POLICIES, segments[i + 1], taskId);
+            }
+        }
+
+        return new Route(NONE, "", "");
+    }
+
+    /**
+     * Start the action of the topic, subscribe is left to the caller
+     * @param context the context
+     * @param topic String topic of the message
+     * @param message String body of the message
+     * @return Route of the topic
+     */
+    public static Route dispatch(Context context, String topic, String message) {
+        Route route = parse(topic);
+        if(route.action == NONE) {
+            FlyveLog.d("No action for topic: " + topic);
+        } else if(route.action != SUBSCRIBE) {
+            PoliciesAsyncTask.dispatch(context, route.action, topic, message);
+        }
+        return route;
+    }
+}
@@ -29,6 +29,7 @@ import android.content.Intent;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 
+import org.flyve.mdm.agent.core.outbox.OutboxWorker;
 import org.flyve.mdm.agent.data.database.PoliciesData;
 import org.flyve.mdm.agent.policies.AirplaneModePolicy;
 import org.flyve.mdm.agent.policies.BluetoothPolicy;
@@ -87,6 +88,11 @@ public class MQTTConnectivityReceiver extends BroadcastReceiver {
         if("android.net.conn.CONNECTIVITY_CHANGE".equalsIgnoreCase(action)) {
             FlyveLog.i("is Online: %s", Helpers.isOnline(context));
 
+            // Send the reports saved while offline
+            if(Helpers.isOnline(context)) {
+                OutboxWorker.getInstance(context).wakeUp(true);
+            }
+
             // Disable / Enable Roaming
             Boolean policy = Helpers.boolFromString(cache.getValue(RoamingPolicy.POLICY_NAME).value);
             if(policy) {
@@ -39,9 +39,13 @@ import android.widget.CompoundButton;
 import android.widget.Switch;
 
 import org.flyve.mdm.agent.R;
+import org.flyve.mdm.agent.core.outbox.OutboxWorker;
 import org.flyve.mdm.agent.data.localstorage.AppData;
 import org.flyve.mdm.agent.data.localstorage.LocalStorage;
+import org.flyve.mdm.agent.data.database.InboundMessageData;
 import org.flyve.mdm.agent.data.database.MqttData;
+import org.flyve.mdm.agent.data.database.TaskStatusData;
+import org.flyve.mdm.agent.utils.ConnectionHTTP;
 import org.flyve.mdm.agent.utils.FlyveLog;
 
 import static org.flyve.mdm.agent.ui.OptionsEnrollmentActivity.REQUEST_DRAWOVERLAY_CODE;
@@ -129,6 +133,10 @@ public class FragmentConfiguration extends Fragment {
                         localStorage.clearSettings();
 
                         new MqttData(FragmentConfiguration.this.getContext()).deleteAll();
+                        new TaskStatusData(FragmentConfiguration.this.getContext()).deleteAll();
+                        OutboxWorker.getInstance(FragmentConfiguration.this.getContext()).clear();
+                        new InboundMessageData(FragmentConfiguration.this.getContext()).deleteAll();
+                        ConnectionHTTP.clearMetadataCache(FragmentConfiguration.this.getContext());
                         dialog.dismiss();
                     }
                 });
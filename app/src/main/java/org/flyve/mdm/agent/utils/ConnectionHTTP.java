@@ -28,21 +28,45 @@ import android.os.Handler;
 import android.os.Looper;
 
 import org.flyve.mdm.agent.core.Routes;
+import org.flyve.mdm.agent.core.http.ChunkedDownloader;
+import org.flyve.mdm.agent.core.http.Deadline;
+import org.flyve.mdm.agent.core.http.DownloadPolicy;
+import org.flyve.mdm.agent.core.http.FileDownloader;
+import org.flyve.mdm.agent.core.http.HttpDispatcher;
+import org.flyve.mdm.agent.core.http.HttpRequest;
+import org.flyve.mdm.agent.core.http.HttpResponse;
+import org.flyve.mdm.agent.core.http.HttpStats;
+import org.flyve.mdm.agent.core.http.HttpTransport;
+import org.flyve.mdm.agent.core.http.JsonFieldReader;
+import org.flyve.mdm.agent.core.http.JsonFields;
+import org.flyve.mdm.agent.core.http.ResponseCache;
+import org.flyve.mdm.agent.core.http.SessionManager;
+import org.flyve.mdm.agent.core.http.SessionTransport;
+import org.flyve.mdm.agent.core.http.SingleFlight;
+import org.flyve.mdm.agent.core.http.TokenBucket;
+import org.flyve.mdm.agent.core.http.UrlConnectionTransport;
 import org.flyve.mdm.agent.data.database.MqttData;
+import org.flyve.mdm.agent.data.database.TaskStatusData;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ConnectionHTTP {
 
@@ -52,14 +76,156 @@ public class ConnectionHTTP {
 		uiHandler = new Handler(Looper.getMainLooper());
 	}
 
-	private static int timeout = 1800000;
-	private static int readtimeout = 600000;
+	// the deadline of the route limits the whole request, these are the limits of each step
+	private static final int CONNECT_TIMEOUT = 15000;
+	private static final int READ_TIMEOUT = 30000;
+	// a download has no total budget, only a stalled socket is stopped
+	private static final int DOWNLOAD_READ_TIMEOUT = 60000;
+	// smaller files are faster with one request
+	private static final long PARALLEL_MIN_SIZE = 16 * 1024 * 1024;
 	private static final String EXCEPTION_HTTP = "EXCEPTION_HTTP_";
 
+	// a 401 drops the session token of the SessionManager
+	private static volatile HttpTransport transport = new SessionTransport(new UrlConnectionTransport());
+
+	// identical GET requests in flight share one call, a burst of policies asks for the same session
+	private static final SingleFlight<String> dataFlight = new SingleFlight<>();
+	private static final SingleFlight<JsonFields> fieldsFlight = new SingleFlight<>();
+
+	// file and package metadata, revalidated with the server instead of downloaded again
+	private static final long METADATA_CACHE_SIZE = 512 * 1024;
+	private static ResponseCache metadataCache;
+
+	// all the downloads share the rate of the current network
+	private static final TokenBucket downloadBucket = new TokenBucket(DownloadPolicy.NO_LIMIT);
+	private static volatile DownloadPolicy downloadPolicy = DownloadPolicy.forNetwork(DownloadPolicy.NETWORK_UNMETERED);
+
 	private static void runOnUI(Runnable runnable) {
 		uiHandler.post(runnable);
 	}
 
+	/**
+	 * The answer of a request that failed or that the server refused with an error status
+	 * @param data String given to a DataCallback
+	 * @return boolean true if the request was not applied by the server
+	 */
+	public static boolean isFailure(String data) {
+		return data == null || data.startsWith(EXCEPTION_HTTP);
+	}
+
+	/**
+	 * Mark an error with the failure prefix, isFailure is true for it
+	 * @param error String message or body of the error
+	 * @return String the error with the prefix
+	 */
+	public static String failure(String error) {
+		return isFailure(error) ? error : EXCEPTION_HTTP + error;
+	}
+
+	private static String failure(HttpResponse response, String body) {
+		return EXCEPTION_HTTP + response.getCode() + " " + body;
+	}
+
+	/**
+	 * Replace the connection layer used by all the requests, EnrollmentHelper and PoliciesFiles included
+	 * @param httpTransport HttpTransport to use
+	 */
+	public static void setTransport(HttpTransport httpTransport) {
+		transport = new SessionTransport(httpTransport);
+	}
+
+	public static HttpTransport getTransport() {
+		return ((SessionTransport) transport).getTransport();
+	}
+
+	/**
+	 * Apply the rate of a network class to the downloads, the ones in progress included
+	 * @param policy DownloadPolicy of the current network
+	 */
+	public static void setDownloadPolicy(DownloadPolicy policy) {
+		downloadPolicy = policy;
+		downloadBucket.setRate(policy.getBytesPerSecond());
+		FlyveLog.d("Download policy: " + policy);
+	}
+
+	/**
+	 * Run the request on the shared dispatcher instead of a new thread
+	 * @param priority int HttpDispatcher priority
+	 * @param request Runnable with the request
+	 * @param callback DataCallback to notify if the queue is full, can be null
+	 */
+	private static void dispatch(int priority, Runnable request, final DataCallback callback) {
+		HttpDispatcher.getInstance().dispatch(priority, request, new Runnable() {
+			@Override
+			public void run() {
+				HttpDispatcher dispatcher = HttpDispatcher.getInstance();
+				Log("Request rejected, queue: " + dispatcher.getQueueDepth() + " in flight: " + dispatcher.getInFlight());
+				if(callback != null) {
+					ConnectionHTTP.runOnUI(new Runnable() {
+						public void run() {
+							callback.callback(EXCEPTION_HTTP + "QUEUE_FULL");
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Create the request with the deadline of the route of the url
+	 * @param method String GET, POST, PUT
+	 * @param url String the url
+	 * @param header Map with the header, can be null
+	 * @return HttpRequest
+	 */
+	private static HttpRequest newRequest(String method, String url, Map<String, String> header) {
+		return newRequest(method, url, header, Deadline.after(Routes.getBudget(Routes.getRouteName(url))));
+	}
+
+	/**
+	 * Create the request with the deadline shared by a chain of requests
+	 * @param deadline Deadline started by the first request of the chain
+	 */
+	private static HttpRequest newRequest(String method, String url, Map<String, String> header, Deadline deadline) {
+		HttpRequest request = new HttpRequest(method, url, Routes.getRouteName(url));
+		request.setConnectTimeout(CONNECT_TIMEOUT);
+		request.setReadTimeout(READ_TIMEOUT);
+		request.setDeadline(deadline);
+		request.setHeaders(header);
+		return request;
+	}
+
+	/**
+	 * Create the request with the json body
+	 */
+	private static HttpRequest newRequest(String method, String url, Map<String, String> header, String data) throws IOException {
+		HttpRequest request = newRequest(method, url, header);
+		request.setBody(data.getBytes("UTF-8"));
+		return request;
+	}
+
+	private static HttpRequest newRequest(String method, String url, Map<String, String> header, Deadline deadline, String data) throws IOException {
+		HttpRequest request = newRequest(method, url, header, deadline);
+		request.setBody(data.getBytes("UTF-8"));
+		return request;
+	}
+
+	private static String logResponse(HttpRequest request, HttpResponse response, String data, String requestResponse) {
+		StringBuilder log = new StringBuilder();
+		log.append("\n URL:\n").append(request.getUrl());
+		log.append("\n\n Method:\n").append(request.getMethod());
+		log.append("\n\n Code:\n").append(response.getCode()).append(" ").append(response.getMessage());
+		log.append("\n\n Header:\n").append(request.getLogHeader());
+		if(data != null) {
+			log.append("\n\n Data:\n").append(data);
+		}
+		if(requestResponse != null) {
+			log.append("\n\n Response:\n").append(requestResponse);
+		}
+		log.append("\n\n");
+		return log.toString();
+	}
+
 	/**
 	 * Get the data in a synchronous way
 	 * @param url
@@ -68,44 +234,218 @@ public class ConnectionHTTP {
 	 */
 	public static String getSyncWebData(String url, String method, Map<String, String> header) {
 		try {
-			URL dataURL = new URL(url);
-			HttpURLConnection conn = (HttpURLConnection)dataURL.openConnection();
-
-			conn.setConnectTimeout(timeout);
-			conn.setReadTimeout(readtimeout);
-			conn.setInstanceFollowRedirects(true);
-			conn.setRequestMethod(method);
-
-			StringBuilder logHeader = new StringBuilder();
-			if(header != null) {
-				for (Map.Entry<String, String> entry : header.entrySet()) {
-					logHeader.append("- " + entry.getKey() + " : " + entry.getValue() + "\n");
-					conn.setRequestProperty(entry.getKey(), entry.getValue());
+			final HttpRequest request = newRequest(method, url, header);
+			if(!"GET".equals(request.getMethod())) {
+				return readData(request);
+			}
+
+			return dataFlight.execute(request.getKey(), new SingleFlight.Call<String>() {
+				@Override
+				public String call() throws IOException {
+					return readData(request);
+				}
+			});
+		}
+		catch (final Exception ex) {
+			FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", getSyncWebData", ex.getClass() +" : " + ex.getMessage());
+			return EXCEPTION_HTTP + ex.getMessage();
+		}
+	}
+
+	/**
+	 * Get only the fields needed from the response in a synchronous way, the body is parsed while it is read
+	 * @param url String the url
+	 * @param method String GET, PUT
+	 * @param header Map with the header
+	 * @param fields String paths of the fields, example: "session.plugin_flyvemdm_guest_profiles_id"
+	 * @return JsonFields with the values, or the error of the server
+	 */
+	public static JsonFields getSyncWebDataFields(String url, String method, Map<String, String> header, String... fields) {
+		return getSyncWebDataFields(Deadline.after(Routes.getBudget(Routes.getRouteName(url))), url, method, header, fields);
+	}
+
+	/**
+	 * Get only the fields needed from the response, the request is the first one of a chain
+	 * @param deadline Deadline shared with the next requests of the chain
+	 */
+	public static JsonFields getSyncWebDataFields(Deadline deadline, String url, String method, Map<String, String> header, String... fields) {
+		try {
+			return readFields(newRequest(method, url, header, deadline), null, fields);
+		}
+		catch (final Exception ex) {
+			FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", getSyncWebDataFields", ex.getClass() +" : " + ex.getMessage());
+			return JsonFields.error(EXCEPTION_HTTP + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Post the data and get only the fields needed from the response in a synchronous way
+	 * @param url String the url
+	 * @param data JSONObject data to send
+	 * @param header Map with the header
+	 * @param fields String paths of the fields
+	 * @return JsonFields with the values, or the error of the server
+	 */
+	public static JsonFields getSyncWebDataFields(String url, JSONObject data, Map<String, String> header, String... fields) {
+		try {
+			return readFields(newRequest("POST", url, header, data.toString()), data.toString(), fields);
+		}
+		catch (final Exception ex) {
+			FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", getSyncWebDataFields", ex.getClass() +" : " + ex.getMessage());
+			return JsonFields.error(EXCEPTION_HTTP + ex.getMessage());
+		}
+	}
+
+	private static synchronized ResponseCache getMetadataCache(Context context) {
+		if(metadataCache == null) {
+			metadataCache = new ResponseCache(new File(context.getCacheDir(), "http-metadata"), METADATA_CACHE_SIZE);
+		}
+		return metadataCache;
+	}
+
+	/**
+	 * Remove the metadata of the files and packages of the enrollment
+	 * @param context
+	 */
+	public static void clearMetadataCache(Context context) {
+		getMetadataCache(context).clear();
+	}
+
+	/**
+	 * Get the fields of the file or package metadata, the copy on the cache is revalidated
+	 * with If-None-Match / If-Modified-Since and used if the server answers 304
+	 * @param context Context to get the cache folder
+	 * @param url String url of PluginFlyvemdmFile or PluginFlyvemdmPackage
+	 * @param header Map with the header
+	 * @param fields String paths of the fields
+	 * @return JsonFields with the values, or the error of the server
+	 */
+	public static JsonFields getSyncMetadataFields(Context context, String url, Map<String, String> header, final String... fields) {
+		try {
+			final ResponseCache cache = getMetadataCache(context);
+			final ResponseCache.Entry entry = cache.get(url);
+
+			final HttpRequest request = newRequest("GET", url, header);
+			if(entry != null) {
+				if(!entry.getEtag().isEmpty()) {
+					request.setHeader("If-None-Match", entry.getEtag());
+				}
+				if(!entry.getLastModified().isEmpty()) {
+					request.setHeader("If-Modified-Since", entry.getLastModified());
 				}
-			} else {
-				logHeader.append("Empty");
 			}
 
-			if(conn.getResponseCode() >= 400) {
-				InputStream is = conn.getErrorStream();
-				return inputStreamToString(is);
+			String key = request.getKey() + "\n" + Arrays.toString(fields);
+			return fieldsFlight.execute(key, new SingleFlight.Call<JsonFields>() {
+				@Override
+				public JsonFields call() throws IOException {
+					return readCachedFields(cache, entry, request, fields);
+				}
+			});
+		}
+		catch (final Exception ex) {
+			FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", getSyncMetadataFields", ex.getClass() +" : " + ex.getMessage());
+			return JsonFields.error(EXCEPTION_HTTP + ex.getMessage());
+		}
+	}
+
+	private static JsonFields readCachedFields(ResponseCache cache, ResponseCache.Entry entry, HttpRequest request, String... fields) throws IOException {
+		HttpResponse response = transport.execute(request);
+
+		InputStream stream = response.getStream();
+		try {
+			if(response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+				LogDebug(logResponse(request, response, null, "Not modified, read from the cache"));
+				return JsonFieldReader.read(new ByteArrayInputStream(entry.getBody()), fields);
+			}
+
+			if(response.isError()) {
+				if(response.getCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+					cache.remove(request.getUrl());
+				}
+				return errorFields(response, stream);
 			}
 
-			InputStream is = conn.getInputStream();
-			String requestResponse = inputStreamToString(is);
-			String response = "\n URL:\n" + url + "\n\n Method:\n" + conn.getRequestMethod() + "\n\n Code:\n" + conn.getResponseCode() + " " + conn.getResponseMessage() + "\n\n Header:\n" + logHeader + "\n\n Response:\n" + requestResponse + "\n\n";
-			LogDebug(response);
+			// the metadata is small, the whole body is kept to answer the next 304
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = stream.read(buffer)) != -1) {
+				body.write(buffer, 0, count);
+			}
+			cache.put(request.getUrl(), response.getHeader("ETag"), response.getHeader("Last-Modified"), body.toByteArray());
+
+			JsonFields values = JsonFieldReader.read(new ByteArrayInputStream(body.toByteArray()), fields);
+			LogDebug(logResponse(request, response, null, values.toString()));
+			return values;
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Fields of a failed response, the status is used when the server sends no body
+	 */
+	private static JsonFields errorFields(HttpResponse response, InputStream stream) throws IOException {
+		String body = inputStreamToString(stream);
+		if(body.trim().isEmpty()) {
+			body = "ERROR HTTP " + response.getCode();
+		}
+		return JsonFields.error(body);
+	}
+
+	private static String readData(HttpRequest request) throws IOException {
+		HttpResponse response = transport.execute(request);
 
+		String requestResponse = inputStreamToString(response.getStream());
+		if(response.isError()) {
 			return requestResponse;
 		}
-		catch (final Exception ex) {
-			FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", getSyncWebData", ex.getClass() +" : " + ex.getMessage());
-			return EXCEPTION_HTTP + ex.getMessage();
+
+		LogDebug(logResponse(request, response, null, requestResponse));
+
+		return requestResponse;
+	}
+
+	/**
+	 * Read the fields of the response, a GET already in flight with the same
+	 * url, headers and fields is joined instead of sent again
+	 */
+	private static JsonFields readFields(final HttpRequest request, final String data, final String... fields) throws IOException {
+		if(!"GET".equals(request.getMethod())) {
+			return readFieldsNow(request, data, fields);
+		}
+
+		String key = request.getKey() + "\n" + Arrays.toString(fields);
+		return fieldsFlight.execute(key, new SingleFlight.Call<JsonFields>() {
+			@Override
+			public JsonFields call() throws IOException {
+				return readFieldsNow(request, data, fields);
+			}
+		});
+	}
+
+	private static JsonFields readFieldsNow(HttpRequest request, String data, String... fields) throws IOException {
+		HttpResponse response = transport.execute(request);
+
+		InputStream stream = response.getStream();
+		if(response.isError()) {
+			return errorFields(response, stream);
+		}
+
+		JsonFields values;
+		try {
+			values = JsonFieldReader.read(stream, fields);
+		} finally {
+			stream.close();
 		}
+
+		LogDebug(logResponse(request, response, data, values.toString()));
+		return values;
 	}
 
 	public static void killSession(final Context context, final String sessionToken) {
-		Thread t = new Thread(new Runnable()
+		dispatch(HttpDispatcher.PRIORITY_LOW, new Runnable()
 		{
 			public void run()
 			{
@@ -114,41 +454,22 @@ public class ConnectionHTTP {
 					Routes routes = new Routes(context);
 					MqttData cache = new MqttData(context);
 					String url = routes.pluginFlyvemdmAgent(cache.getAgentId());
-					URL dataURL = new URL(url);
-					HttpURLConnection conn = (HttpURLConnection)dataURL.openConnection();
-
-					conn.setRequestMethod("GET");
-					conn.setConnectTimeout(timeout);
-					conn.setReadTimeout(readtimeout);
 
 					HashMap<String, String> header = new HashMap();
 					header.put("Accept","application/octet-stream");
 					header.put("Content-Type","application/json");
 					header.put("Session-Token", sessionToken);
 
-					StringBuilder logHeader = new StringBuilder();
-					if(header != null) {
-						for (Map.Entry<String, String> entry : header.entrySet()) {
-							logHeader.append("- " + entry.getKey() + " : " + entry.getValue() + "\n");
-							conn.setRequestProperty(entry.getKey(), entry.getValue());
-						}
-					} else {
-						logHeader.append("Empty");
-					}
+					HttpRequest request = newRequest("GET", url, header);
+					HttpResponse response = transport.execute(request);
 
-					if(conn.getResponseCode() >= 400) {
-						InputStream is = conn.getErrorStream();
-						String result = inputStreamToString(is);
-						Log(result);
+					final String requestResponse = inputStreamToString(response.getStream());
+					if(response.isError()) {
+						Log(requestResponse);
 						return;
 					}
 
-					InputStream is = conn.getInputStream();
-					final String requestResponse = inputStreamToString(is);
-
-					String response = "\n URL:\n" + url + "\n\n Method:\n" + conn.getRequestMethod() + "\n\n Code:\n" + conn.getResponseCode() + " " + conn.getResponseMessage() + "\n\n Header:\n" + logHeader + "\n\n Response:\n" + requestResponse + "\n\n";
-					LogDebug(response);
-
+					LogDebug(logResponse(request, response, null, requestResponse));
 				}
 				catch (final Exception ex)
 				{
@@ -161,77 +482,53 @@ public class ConnectionHTTP {
 					});
 				}
 			}
-		});
-		t.start();
-
+		}, null);
 	}
 
 	public static void sendHttpResponse(final Context context, final String url, final String data, final String sessionToken, final DataCallback callback) {
-		Thread t = new Thread(new Runnable()
+		sendHttpResponse(context, url, data, sessionToken, HttpDispatcher.PRIORITY_NORMAL, callback);
+	}
+
+	/**
+	 * Send the data to the url on the shared dispatcher
+	 * @param priority int HttpDispatcher priority, status of wipe / lock goes before ping / inventory
+	 */
+	public static void sendHttpResponse(final Context context, final String url, final String data, final String sessionToken, final int priority, final DataCallback callback) {
+		sendHttpResponse(context, url, data, sessionToken, priority, Deadline.after(Routes.getBudget(Routes.getRouteName(url))), callback);
+	}
+
+	/**
+	 * Send the data to the url on the shared dispatcher
+	 * @param deadline Deadline shared with the requests done before, like the initSession
+	 */
+	public static void sendHttpResponse(final Context context, final String url, final String data, final String sessionToken, final int priority, final Deadline deadline, final DataCallback callback) {
+		dispatch(priority, new Runnable()
 		{
 			public void run()
 			{
 				try
 				{
-					URL dataURL = new URL(url);
-					HttpURLConnection conn = (HttpURLConnection)dataURL.openConnection();
-					if(url.contains("PluginFlyvemdmGeolocation")) {
-						conn.setRequestMethod("POST");
-					} else {
-						conn.setRequestMethod("PUT");
-					}
-					conn.setConnectTimeout(timeout);
-					conn.setReadTimeout(readtimeout);
+					String method = url.contains("PluginFlyvemdmGeolocation") ? "POST" : "PUT";
 
 					HashMap<String, String> header = new HashMap();
 					header.put("Accept","application/octet-stream");
 					header.put("Content-Type","application/json");
 					header.put("Session-Token", sessionToken);
 
-					StringBuilder logHeader = new StringBuilder();
-					if(header != null) {
-						for (Map.Entry<String, String> entry : header.entrySet()) {
-							logHeader.append("- " + entry.getKey() + " : " + entry.getValue() + "\n");
-							conn.setRequestProperty(entry.getKey(), entry.getValue());
-						}
-					} else {
-						logHeader.append("Empty");
-					}
-
-					// Send post request
-					conn.setDoOutput(true);
-
-					DataOutputStream os = new DataOutputStream(conn.getOutputStream());
-					os.writeBytes(data);
-					os.flush();
-					os.close();
+					HttpRequest request = newRequest(method, url, header, deadline, data);
+					HttpResponse response = transport.execute(request);
 
-					if(conn.getResponseCode() >= 400) {
-						InputStream is = conn.getErrorStream();
-						final String result = inputStreamToString(is);
-
-						ConnectionHTTP.runOnUI(new Runnable()
-						{
-							public void run()
-							{
-								callback.callback(result);
-							}
-						});
-						return;
+					String body = inputStreamToString(response.getStream());
+					if(!response.isError()) {
+						LogDebug(logResponse(request, response, data, body));
 					}
 
-					InputStream is = conn.getInputStream();
-					final String requestResponse = inputStreamToString(is);
-
-					String response = "\n URL:\n" + url + "\n\n Method:\n" + conn.getRequestMethod() + "\n\n Code:\n" + conn.getResponseCode() + " " + conn.getResponseMessage() + "\n\n Header:\n" + logHeader + "\n\n Data:\n" + data +"\n\n Response:\n" + requestResponse + "\n\n";
-					LogDebug(response);
-
+					final String requestResponse = response.isError() ? failure(response, body) : body;
 					ConnectionHTTP.runOnUI(new Runnable() {
 						public void run() {
 							callback.callback(requestResponse);
 						}
 					});
-
 				}
 				catch (final Exception ex)
 				{
@@ -245,12 +542,19 @@ public class ConnectionHTTP {
 					});
 				}
 			}
-		});
-		t.start();
+		}, callback);
 	}
 
 	public static void sendHttpResponsePolicies(final Context context, final String taskId, final String data, final String sessionToken, final DataCallback callback) {
-		Thread t = new Thread(new Runnable()
+		sendHttpResponsePolicies(context, taskId, data, sessionToken, Deadline.after(Routes.TASK_STATUS_BUDGET), callback);
+	}
+
+	/**
+	 * Search the taskstatus and update it, both requests share the deadline
+	 * @param deadline Deadline of the chain, started before the initSession
+	 */
+	public static void sendHttpResponsePolicies(final Context context, final String taskId, final String data, final String sessionToken, final Deadline deadline, final DataCallback callback) {
+		dispatch(HttpDispatcher.PRIORITY_HIGH, new Runnable()
 		{
 			public void run()
 			{
@@ -258,132 +562,81 @@ public class ConnectionHTTP {
 				{
 					Routes routes = new Routes(context);
 					MqttData cache = new MqttData(context);
+					TaskStatusData index = new TaskStatusData(context);
 					String url = routes.PluginFlyvemdmTaskstatusSearch(cache.getAgentId(), taskId);
 
-					// First step get the taskstatus_id
-					URL dataURL = new URL(url);
-					HttpURLConnection conn = (HttpURLConnection)dataURL.openConnection();
-
-					conn.setRequestMethod("GET");
-					conn.setConnectTimeout(timeout);
-					conn.setReadTimeout(readtimeout);
-
 					HashMap<String, String> header = new HashMap();
 					header.put("Content-Type","application/json");
 					header.put("Session-Token", sessionToken);
 
-					StringBuilder logHeader = new StringBuilder();
-					if(header != null) {
-						for (Map.Entry<String, String> entry : header.entrySet()) {
-							logHeader.append("- " + entry.getKey() + " : " + entry.getValue() + "\n");
-							conn.setRequestProperty(entry.getKey(), entry.getValue());
-						}
-					} else {
-						logHeader.append("Empty");
-					}
+					// the taskstatus_id is only searched for the first status of the task
+					String taskStatusId = index.getTaskStatusId(taskId);
+					final boolean indexed = !taskStatusId.isEmpty();
 
-					if(conn.getResponseCode() >= 400) {
-						InputStream is = conn.getErrorStream();
-						final String result = inputStreamToString(is);
-
-						ConnectionHTTP.runOnUI(new Runnable()
-						{
-							public void run()
+					if(!indexed) {
+						// First step get the taskstatus_id
+						HttpRequest request = newRequest("GET", url, header, deadline);
+						JsonFields search = readFields(request, null, "data.0.2");
+						if(search.isError()) {
+							final String requestResponse = failure(search.getError());
+							ConnectionHTTP.runOnUI(new Runnable()
 							{
-								callback.callback(result);
-							}
-						});
-						return;
-					}
-
-					InputStream is = conn.getInputStream();
-					final String requestResponse = inputStreamToString(is);
-
-					String taskStatusId = "";
-					try {
-						JSONObject objResponse = new JSONObject(requestResponse);
-
-						JSONArray arrayData = objResponse.getJSONArray("data");
-						taskStatusId = arrayData.getJSONObject(0).getString("2");
-					} catch (Exception ex) {
-						FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", getWebData",ex.getClass() + " : " + ex.getMessage() + " Data : " + data + "Route : " + url);
-						return;
-					}
-
-					String response = "\n URL:\n" + url + "\n\n Method:\n" + conn.getRequestMethod() + "\n\n Code:\n" + conn.getResponseCode() + " " + conn.getResponseMessage() + "\n\n Header:\n" + logHeader + "\n\n Data:\n" + data + "\n\n Response:\n" + requestResponse + "\n\n";
-					LogDebug(response);
-
-					try {
-						// second step update the status task
-						url = routes.PluginFlyvemdmTaskstatus(taskStatusId);
-
-						dataURL = new URL(url);
-						conn = (HttpURLConnection)dataURL.openConnection();
-
-						conn.setRequestMethod("PUT");
-						conn.setConnectTimeout(timeout);
-						conn.setReadTimeout(readtimeout);
-
-						header = new HashMap();
-						header.put("Content-Type","application/json");
-						header.put("Session-Token", sessionToken);
-
-						logHeader = new StringBuilder();
-						if(header != null) {
-							for (Map.Entry<String, String> entry : header.entrySet()) {
-								logHeader.append("- " + entry.getKey() + " : " + entry.getValue() + "\n");
-								conn.setRequestProperty(entry.getKey(), entry.getValue());
-							}
-						} else {
-							logHeader.append("Empty");
+								public void run()
+								{
+									callback.callback(requestResponse);
+								}
+							});
+							return;
 						}
 
-						// Send post request
-						conn.setDoOutput(true);
-
-						DataOutputStream os = new DataOutputStream(conn.getOutputStream());
-						os.writeBytes(data);
-						os.flush();
-						os.close();
-
-						if(conn.getResponseCode() >= 400) {
-							is = conn.getErrorStream();
-							final String result = inputStreamToString(is);
-
+						taskStatusId = search.optString("data.0.2", "");
+						if(taskStatusId.isEmpty()) {
+							FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", getWebData", "taskstatus not found Data : " + data + "Route : " + url);
 							ConnectionHTTP.runOnUI(new Runnable()
 							{
 								public void run()
 								{
-									callback.callback(result);
+									callback.callback(EXCEPTION_HTTP + "TASKSTATUS_NOT_FOUND");
 								}
 							});
 							return;
 						}
+						index.setTaskStatusId(taskId, taskStatusId);
+					}
 
-						is = conn.getInputStream();
-						final String requestResponsePut = inputStreamToString(is);
+					try {
+						// second step update the status task
+						url = routes.PluginFlyvemdmTaskstatus(taskStatusId);
 
-						response = "\n URL:\n" + url + "\n\n Method:\n" + conn.getRequestMethod() + "\n\n Code:\n" + conn.getResponseCode() + " " + conn.getResponseMessage() + "\n\n Header:\n" + logHeader + "\n\n Data:\n" + data + "\n\n Response:\n" + requestResponse + "\n\n";
-						LogDebug(response);
+						HttpRequest request = newRequest("PUT", url, header, deadline, data);
+						HttpResponse response = transport.execute(request);
 
+						String body = inputStreamToString(response.getStream());
+						if(indexed && response.getCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+							// the taskstatus of the index is gone, search it again
+							index.deleteByTaskId(taskId);
+							sendHttpResponsePolicies(context, taskId, data, sessionToken, deadline, callback);
+							return;
+						}
+						if(!response.isError()) {
+							LogDebug(logResponse(request, response, data, body));
+						}
+
+						final String requestResponsePut = response.isError() ? failure(response, body) : body;
 						ConnectionHTTP.runOnUI(new Runnable() {
 							public void run() {
 								callback.callback(requestResponsePut);
 							}
 						});
-
-
 					} catch (final Exception ex) {
 						ConnectionHTTP.runOnUI(new Runnable()
 						{
 							public void run()
 							{
-								callback.callback(ex.getMessage());
+								callback.callback(EXCEPTION_HTTP + ex.getMessage());
 							}
 						});
 					}
-
-
 				}
 				catch (final Exception ex)
 				{
@@ -397,8 +650,251 @@ public class ConnectionHTTP {
 					});
 				}
 			}
+		}, callback);
+	}
+
+	/**
+	 * Update the status of several tasks with one search and one PUT
+	 * The tasks missing from the grouped search are searched alone, if the server refuses
+	 * the list with a 400 the tasks are updated one by one
+	 * @param statuses Map with the status of each task id
+	 * @param deadline Deadline of the chain, started before the initSession
+	 * @param callback TaskStatusCallback called once for each task
+	 */
+	public static void sendHttpResponsePolicies(final Context context, final Map<String, String> statuses, final String sessionToken, final Deadline deadline, final TaskStatusCallback callback) {
+		dispatch(HttpDispatcher.PRIORITY_HIGH, new Runnable()
+		{
+			public void run()
+			{
+				// the tasks already answered are not notified again if a later request fails
+				Set<String> notified = new HashSet<>();
+				try
+				{
+					Routes routes = new Routes(context);
+					MqttData cache = new MqttData(context);
+					TaskStatusData index = new TaskStatusData(context);
+
+					HashMap<String, String> header = new HashMap();
+					header.put("Content-Type","application/json");
+					header.put("Session-Token", sessionToken);
+
+					// First step get the taskstatus_id of the tasks missing from the index
+					Set<String> indexed = new HashSet<>();
+					Map<String, String> taskStatusIds = searchTaskStatusIds(index, routes, cache.getAgentId(), new ArrayList<>(statuses.keySet()), header, deadline, indexed);
+
+					JSONArray input = new JSONArray();
+					for (Map.Entry<String, String> status : statuses.entrySet()) {
+						String taskStatusId = taskStatusIds.get(status.getKey());
+						if(taskStatusId == null) {
+							FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", sendHttpResponsePolicies", "taskstatus not found Task : " + status.getKey());
+							notifyTask(callback, notified, status.getKey(), EXCEPTION_HTTP + "TASKSTATUS_NOT_FOUND");
+							continue;
+						}
+
+						JSONObject item = new JSONObject();
+						item.put("id", taskStatusId);
+						item.put("status", status.getValue());
+						input.put(item);
+					}
+
+					if(input.length() == 0) {
+						return;
+					}
+
+					// second step update all the status with one request
+					JSONObject data = new JSONObject();
+					data.put("input", input);
+
+					HttpRequest request = newRequest("PUT", routes.PluginFlyvemdmTaskstatus(), header, deadline, data.toString());
+					HttpResponse response = transport.execute(request);
+					String requestResponse = inputStreamToString(response.getStream());
+
+					if(!response.isError()) {
+						LogDebug(logResponse(request, response, data.toString(), requestResponse));
+						Set<String> refused = getRefusedItems(requestResponse);
+						for (Map.Entry<String, String> taskStatusId : taskStatusIds.entrySet()) {
+							String taskId = taskStatusId.getKey();
+							if(indexed.contains(taskId) && refused.contains(taskStatusId.getValue())) {
+								notified.add(taskId);
+								resendTaskStatus(context, index, taskId, statuses.get(taskId), sessionToken, deadline, callback);
+							} else if(refused.contains(taskStatusId.getValue())) {
+								notifyTask(callback, notified, taskId, failure(requestResponse));
+							} else {
+								notifyTask(callback, notified, taskId, requestResponse);
+							}
+						}
+						return;
+					}
+
+					if(response.getCode() != HttpURLConnection.HTTP_BAD_REQUEST) {
+						// session refused or server error, the same answer is expected for each item
+						FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", sendHttpResponsePolicies", "Grouped taskstatus update failed: " + response.getCode() + " " + requestResponse);
+						for (String taskId : taskStatusIds.keySet()) {
+							notifyTask(callback, notified, taskId, failure(response, requestResponse));
+						}
+						return;
+					}
+
+					// the server refused the list, it only updates one item per request
+					Log("Grouped taskstatus update refused: " + requestResponse);
+					for (Map.Entry<String, String> taskStatusId : taskStatusIds.entrySet()) {
+						String taskId = taskStatusId.getKey();
+						JSONObject payload = new JSONObject();
+						payload.put("input", new JSONObject().put("status", statuses.get(taskId)));
+
+						request = newRequest("PUT", routes.PluginFlyvemdmTaskstatus(taskStatusId.getValue()), header, deadline, payload.toString());
+						response = transport.execute(request);
+						requestResponse = inputStreamToString(response.getStream());
+						if(indexed.contains(taskId) && response.getCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+							notified.add(taskId);
+							resendTaskStatus(context, index, taskId, statuses.get(taskId), sessionToken, deadline, callback);
+							continue;
+						}
+						if(response.isError()) {
+							notifyTask(callback, notified, taskId, failure(response, requestResponse));
+							continue;
+						}
+						LogDebug(logResponse(request, response, payload.toString(), requestResponse));
+						notifyTask(callback, notified, taskId, requestResponse);
+					}
+				}
+				catch (final Exception ex)
+				{
+					FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", sendHttpResponsePolicies",ex.getClass() + " : " + ex.getMessage());
+					for (String taskId : statuses.keySet()) {
+						if(!notified.contains(taskId)) {
+							notifyTask(callback, taskId, EXCEPTION_HTTP + ex.getMessage());
+						}
+					}
+				}
+			}
+		}, new DataCallback() {
+			@Override
+			public void callback(String data) {
+				for (String taskId : statuses.keySet()) {
+					callback.callback(taskId, data);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Get the taskstatus id of each task from the index, the missing ones are searched
+	 * with one request for all of them when there are several and added to the index
+	 * @param indexed Set filled with the tasks read from the index
+	 * @return Map with the taskstatus id of the tasks found
+	 */
+	private static Map<String, String> searchTaskStatusIds(TaskStatusData index, Routes routes, String agentId, List<String> tasks, Map<String, String> header, Deadline deadline, Set<String> indexed) throws IOException {
+		Map<String, String> taskStatusIds = new LinkedHashMap<>();
+
+		List<String> taskIds = new ArrayList<>();
+		for (String taskId : tasks) {
+			String taskStatusId = index.getTaskStatusId(taskId);
+			if(taskStatusId.isEmpty()) {
+				taskIds.add(taskId);
+			} else {
+				taskStatusIds.put(taskId, taskStatusId);
+				indexed.add(taskId);
+			}
+		}
+
+		if(taskIds.size() > 1) {
+			String[] fields = new String[taskIds.size() * 2];
+			for (int i = 0; i < taskIds.size(); i++) {
+				fields[i * 2] = "data." + i + ".2";
+				fields[i * 2 + 1] = "data." + i + ".6";
+			}
+
+			JsonFields search = readFields(newRequest("GET", routes.PluginFlyvemdmTaskstatusSearch(agentId, taskIds), header, deadline), null, fields);
+			if(!search.isError()) {
+				for (int i = 0; i < taskIds.size(); i++) {
+					String taskId = search.optString("data." + i + ".6", "");
+					String taskStatusId = search.optString("data." + i + ".2", "");
+					if(!taskStatusId.isEmpty() && taskIds.contains(taskId)) {
+						taskStatusIds.put(taskId, taskStatusId);
+						index.setTaskStatusId(taskId, taskStatusId);
+					}
+				}
+			}
+		}
+
+		// a task missing from the grouped search is searched alone
+		for (String taskId : taskIds) {
+			if(taskStatusIds.containsKey(taskId)) {
+				continue;
+			}
+
+			JsonFields search = readFields(newRequest("GET", routes.PluginFlyvemdmTaskstatusSearch(agentId, taskId), header, deadline), null, "data.0.2");
+			String taskStatusId = search.isError() ? "" : search.optString("data.0.2", "");
+			if(!taskStatusId.isEmpty()) {
+				taskStatusIds.put(taskId, taskStatusId);
+				index.setTaskStatusId(taskId, taskStatusId);
+			}
+		}
+
+		return taskStatusIds;
+	}
+
+	/**
+	 * The taskstatus of the index is gone, remove it and send the status with a new search
+	 */
+	private static void resendTaskStatus(Context context, TaskStatusData index, final String taskId, String status, String sessionToken, Deadline deadline, final TaskStatusCallback callback) {
+		index.deleteByTaskId(taskId);
+
+		String payload = "";
+		try {
+			payload = new JSONObject().put("input", new JSONObject().put("status", status)).toString();
+		} catch (Exception ex) {
+			FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", resendTaskStatus", ex.getMessage());
+		}
+
+		sendHttpResponsePolicies(context, taskId, payload, sessionToken, deadline, new DataCallback() {
+			@Override
+			public void callback(String data) {
+				callback.callback(taskId, data);
+			}
+		});
+	}
+
+	/**
+	 * Get the items not updated by a request with a list, the server answers an array
+	 * of objects like {"12": true, "message": ""}
+	 * @return Set with the ids refused
+	 */
+	private static Set<String> getRefusedItems(String response) {
+		Set<String> refused = new HashSet<>();
+		try {
+			JSONArray items = new JSONArray(response);
+			for (int i = 0; i < items.length(); i++) {
+				JSONObject item = items.optJSONObject(i);
+				if(item == null) {
+					continue;
+				}
+				Iterator<String> keys = item.keys();
+				while (keys.hasNext()) {
+					String key = keys.next();
+					if(!"message".equals(key) && !item.optBoolean(key, true)) {
+						refused.add(key);
+					}
+				}
+			}
+		} catch (Exception ex) {
+			// not a list, nothing refused
+		}
+		return refused;
+	}
+
+	private static void notifyTask(TaskStatusCallback callback, Set<String> notified, String taskId, String data) {
+		notified.add(taskId);
+		notifyTask(callback, taskId, data);
+	}
+
+	private static void notifyTask(final TaskStatusCallback callback, final String taskId, final String data) {
+		ConnectionHTTP.runOnUI(new Runnable() {
+			public void run() {
+				callback.callback(taskId, data);
+			}
 		});
-		t.start();
 	}
 
 
@@ -410,39 +906,15 @@ public class ConnectionHTTP {
 	 */
 	public static String getSyncWebData(final String url, final JSONObject data, final Map<String, String> header) {
 		try {
-			URL dataURL = new URL(url);
-			HttpURLConnection conn = (HttpURLConnection)dataURL.openConnection();
-
-			conn.setRequestMethod("POST");
-			conn.setConnectTimeout(timeout);
-			conn.setReadTimeout(readtimeout);
-			StringBuilder logHeader = new StringBuilder();
-			if(header != null) {
-				for (Map.Entry<String, String> entry : header.entrySet()) {
-					logHeader.append("- " + entry.getKey() + " : " + entry.getValue() + "\n");
-					conn.setRequestProperty(entry.getKey(), entry.getValue());
-				}
-			} else {
-				logHeader.append("Empty");
-			}
+			HttpRequest request = newRequest("POST", url, header, data.toString());
+			HttpResponse response = transport.execute(request);
 
-			// Send post request
-			conn.setDoOutput(true);
-
-			DataOutputStream os = new DataOutputStream(conn.getOutputStream());
-			os.writeBytes(data.toString());
-			os.flush();
-			os.close();
-
-			if(conn.getResponseCode() >= 400) {
-				InputStream is = conn.getErrorStream();
-				return inputStreamToString(is);
+			String requestResponse = inputStreamToString(response.getStream());
+			if(response.isError()) {
+				return requestResponse;
 			}
 
-			InputStream is = conn.getInputStream();
-			String requestResponse = inputStreamToString(is);
-			String response = "\n URL:\n" + url + "\n\n Method:\n" + conn.getRequestMethod() + "\n\n Code:\n" + conn.getResponseCode() + " " + conn.getResponseMessage() + "\n\n Header:\n" + logHeader + "\n\n Data:\n" + data.toString() + "\n\n Response:\n" + requestResponse + "\n\n";
-			LogDebug(response);
+			LogDebug(logResponse(request, response, data.toString(), requestResponse));
 
 			return requestResponse;
 		}
@@ -460,67 +932,91 @@ public class ConnectionHTTP {
 	 * @return Boolean if file is write
 	 */
 	public static Boolean getSyncFile(final String url, final String pathFile, String sessionToken, final ProgressCallback callback) {
+		return getSyncFile(url, pathFile, sessionToken, -1, "", callback);
+	}
 
-		OutputStream output = null;
-
-		try {
-			URL dataURL = new URL(url);
-			HttpURLConnection conn = (HttpURLConnection)dataURL.openConnection();
-
-			conn.setConnectTimeout(timeout);
-			conn.setReadTimeout(readtimeout);
-			conn.setInstanceFollowRedirects(true);
-
-			HashMap<String, String> header = new HashMap();
-			header.put("Accept","application/octet-stream");
-			header.put("Content-Type","application/json");
-			header.put("Session-Token", sessionToken);
-
-			StringBuilder logHeader = new StringBuilder();
-			for (Map.Entry<String, String> entry : header.entrySet()) {
-				logHeader.append("- " + entry.getKey() + " : " + entry.getValue() + "\n");
-				conn.setRequestProperty(entry.getKey(), entry.getValue());
-			}
+	/**
+	 * Download and save files on device, the download is resumed from the last
+	 * checkpoint of pathFile.part if the previous one was interrupted
+	 * @param url String the url to download the file
+	 * @param pathFile String place to save
+	 * @param expectedSize long size from the file metadata, -1 if unknown
+	 * @param expectedSha256 String hash from the file metadata, empty if unknown
+	 * @return Boolean if file is write and verified
+	 */
+	public static Boolean getSyncFile(final String url, final String pathFile, String sessionToken, long expectedSize, String expectedSha256, final ProgressCallback callback) {
+		return getSyncFile(url, pathFile, sessionToken, expectedSize, expectedSha256, false, callback);
+	}
 
-			int fileLength = conn.getContentLength();
+	/**
+	 * Download and save files on device
+	 * @param parallel boolean true to split the large files in chunks downloaded at the same time,
+	 *                 needs the expectedSize and falls back to one request if the server ignores the ranges
+	 * @return Boolean if file is write and verified
+	 */
+	public static Boolean getSyncFile(final String url, final String pathFile, String sessionToken, long expectedSize, String expectedSha256, boolean parallel, final ProgressCallback callback) {
+		return getSyncFile(url, pathFile, sessionToken, expectedSize, expectedSha256, parallel, downloadPolicy, callback);
+	}
 
-			InputStream input = conn.getInputStream();
-			output = new FileOutputStream(pathFile);
+	/**
+	 * Download and save files on device with the rate and the requests in parallel of the network
+	 * @param policy DownloadPolicy of the current network, the rate is shared with the other downloads
+	 * @return Boolean if file is write and verified
+	 */
+	public static Boolean getSyncFile(final String url, final String pathFile, String sessionToken, long expectedSize, String expectedSha256, boolean parallel, DownloadPolicy policy, final ProgressCallback callback) {
+		if(policy != downloadPolicy) {
+			setDownloadPolicy(policy);
+		}
 
-			byte[] data = new byte[4096];
-			long totalDataRead = 0;
-			int count;
+		HashMap<String, String> header = new HashMap();
+		header.put("Accept","application/octet-stream");
+		header.put("Content-Type","application/json");
+		header.put("Session-Token", sessionToken);
 
-			while ((count = input.read(data)) != -1) {
-				totalDataRead += count;
-				//publish progress only if total length is known
-				if (fileLength > 0) {
-					float percent = (totalDataRead * 100) / fileLength;
-					callback.progress( Math.round(percent) );
+		FileDownloader.ProgressCallback progress = new FileDownloader.ProgressCallback() {
+			@Override
+			public void progress(int value) {
+				if(callback != null) {
+					callback.progress(value);
 				}
+			}
+		};
 
-				output.write(data, 0, count);
+		try {
+			long size = -1;
+
+			if(parallel && expectedSize >= PARALLEL_MIN_SIZE) {
+				ChunkedDownloader chunked = new ChunkedDownloader(url, Routes.getRouteName(url), header, expectedSize);
+				chunked.setTransport(transport);
+				chunked.setTimeouts(CONNECT_TIMEOUT, DOWNLOAD_READ_TIMEOUT);
+				chunked.setExpectedSha256(expectedSha256);
+				chunked.setTokenBucket(downloadBucket);
+				chunked.setMaxConcurrency(policy.getMaxConcurrency());
+				try {
+					size = chunked.download(pathFile, progress);
+				} catch (ChunkedDownloader.RangeNotSupportedException ex) {
+					FlyveLog.d("Parallel download not supported, downloading with one request: " + url);
+				}
 			}
 
-			String response = "\n URL:\n" + url + "\n\n Method:\n" + conn.getRequestMethod() + "\n\n Code:\n" + conn.getResponseCode() + " " + conn.getResponseMessage() + "\n\n Header:\n" + logHeader + "\n\n";
-			LogDebug(response);
+			if(size < 0) {
+				FileDownloader downloader = new FileDownloader(url, Routes.getRouteName(url), header);
+				downloader.setTransport(transport);
+				downloader.setTimeouts(CONNECT_TIMEOUT, DOWNLOAD_READ_TIMEOUT);
+				downloader.setExpectedSize(expectedSize);
+				downloader.setExpectedSha256(expectedSha256);
+				downloader.setTokenBucket(downloadBucket);
+				size = downloader.download(pathFile, progress);
+			}
 
-			FlyveLog.d( "Download complete size: " + totalDataRead);
+			LogDebug("\n URL:\n" + url + "\n\n Method:\nGET\n\n File:\n" + pathFile + "\n\n");
+			FlyveLog.d( "Download complete size: " + size);
 			return true;
 		}
 		catch (final Exception ex) {
 			FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", getSyncFile", ex.getClass() +" : " + ex.getMessage());
 			return false;
 		}
-		finally {
-			if(output!=null){
-				try {
-					output.close();
-				} catch (Exception ex) {
-					FlyveLog.e(ConnectionHTTP.class.getClass().getName() + ", getSyncFile", ex.getMessage());
-				}
-			}
-		}
 	}
 
 	/**
@@ -532,63 +1028,25 @@ public class ConnectionHTTP {
 	 */
 	public static void getWebData(final String url, final JSONObject data, final Map<String, String> header, final DataCallback callback)
 	{
-		Thread t = new Thread(new Runnable()
+		dispatch(HttpDispatcher.PRIORITY_NORMAL, new Runnable()
 		{
 			public void run()
 			{
 			try
 			{
-				URL dataURL = new URL(url);
-				HttpURLConnection conn = (HttpURLConnection)dataURL.openConnection();
-
-				conn.setRequestMethod("POST");
-				conn.setConnectTimeout(timeout);
-				conn.setReadTimeout(readtimeout);
-
-				StringBuilder logHeader = new StringBuilder();
-				if(header != null) {
-					for (Map.Entry<String, String> entry : header.entrySet()) {
-						logHeader.append("- " + entry.getKey() + " : " + entry.getValue() + "\n");
-						conn.setRequestProperty(entry.getKey(), entry.getValue());
-					}
-				} else {
-					logHeader.append("Empty");
-				}
-
-				// Send post request
-				conn.setDoOutput(true);
+				HttpRequest request = newRequest("POST", url, header, data.toString());
+				HttpResponse response = transport.execute(request);
 
-				DataOutputStream os = new DataOutputStream(conn.getOutputStream());
-				os.writeBytes(data.toString());
-				os.flush();
-				os.close();
-
-				if(conn.getResponseCode() >= 400) {
-					InputStream is = conn.getErrorStream();
-					final String result = inputStreamToString(is);
-
-					ConnectionHTTP.runOnUI(new Runnable()
-					{
-						public void run()
-						{
-							callback.callback(result);
-						}
-					});
-					return;
+				final String requestResponse = inputStreamToString(response.getStream());
+				if(!response.isError()) {
+					LogDebug(logResponse(request, response, data.toString(), requestResponse));
 				}
 
-				InputStream is = conn.getInputStream();
-				final String requestResponse = inputStreamToString(is);
-
-				String response = "\n URL:\n" + url + "\n\n Method:\n" + conn.getRequestMethod() + "\n\n Code:\n" + conn.getResponseCode() + " " + conn.getResponseMessage() + "\n\n Header:\n" + logHeader + "\n\n Data:\n" + data.toString() + "\n\n Response:\n" + requestResponse + "\n\n";
-				LogDebug(response);
-
 				ConnectionHTTP.runOnUI(new Runnable() {
 					public void run() {
 						callback.callback(requestResponse);
 					}
 				});
-
 			}
 			catch (final Exception ex)
 			{
@@ -602,8 +1060,23 @@ public class ConnectionHTTP {
 				});
 			}
 			}
-		});
-		t.start();
+		}, callback);
+	}
+
+	/**
+	 * Traffic by route since the app started, handshakes saved by the keep-alive, bytes on the wire
+	 * and the connect, first byte and total latency, the queue of the dispatcher
+	 * @return String report
+	 */
+	public static String getTrafficReport() {
+		HttpDispatcher dispatcher = HttpDispatcher.getInstance();
+		return HttpStats.getInstance().getReport()
+				+ "coalesced GET: " + (dataFlight.getCoalescedCount() + fieldsFlight.getCoalescedCount())
+				+ " of " + (dataFlight.getCallCount() + fieldsFlight.getCallCount() + dataFlight.getCoalescedCount() + fieldsFlight.getCoalescedCount()) + "\n"
+				+ "session refreshes: " + SessionManager.getInstance().getRefreshCount()
+				+ " shared: " + SessionManager.getInstance().getSharedRefreshCount() + "\n"
+				+ "dispatcher queue: " + dispatcher.getQueueDepth() + " in flight: " + dispatcher.getInFlight()
+				+ " completed: " + dispatcher.getCompletedCount() + " rejected: " + dispatcher.getRejectedCount() + "\n";
 	}
 
 	/**
@@ -645,4 +1118,11 @@ public class ConnectionHTTP {
 		void progress(int value);
 	}
 
+	/**
+	 * Response of the status update of one task of a group
+	 */
+	public interface TaskStatusCallback {
+		void callback(String taskId, String data);
+	}
+
 }
@@ -57,6 +57,7 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.TextView;
 
 import org.flyve.mdm.agent.R;
+import org.flyve.mdm.agent.core.http.DownloadPolicy;
 import org.flyve.mdm.agent.data.database.ApplicationData;
 import org.flyve.mdm.agent.data.database.entity.Application;
 import org.flyve.mdm.agent.data.database.setup.AppDataBase;
@@ -421,6 +422,27 @@ public class Helpers {
 		}
 	}
 
+	/**
+	 * Get the class of the active network to shape the downloads
+	 * @param context
+	 * @return int DownloadPolicy.NETWORK_ class, metered when it cannot be known
+	 */
+	public static int getNetworkClass(Context context) {
+		try {
+			ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+			NetworkInfo netInfo = cm.getActiveNetworkInfo();
+			if(netInfo == null || !netInfo.isConnected()) {
+				return DownloadPolicy.NETWORK_METERED;
+			}
+			if(netInfo.isRoaming()) {
+				return DownloadPolicy.NETWORK_ROAMING;
+			}
+			return cm.isActiveNetworkMetered() ? DownloadPolicy.NETWORK_METERED : DownloadPolicy.NETWORK_UNMETERED;
+		} catch (Exception ex) {
+			return DownloadPolicy.NETWORK_METERED;
+		}
+	}
+
 	/**
 	 * Check if the service is running
 	 * @param serviceClass Class
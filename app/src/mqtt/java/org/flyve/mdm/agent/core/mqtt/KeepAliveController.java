@@ -0,0 +1,221 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.mqtt;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.flyve.mdm.agent.data.localstorage.KeepAliveData;
+import org.flyve.mdm.agent.utils.FlyveLog;
+import org.flyve.mdm.agent.utils.Helpers;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Find the longest keep-alive each network accepts. Every ping wakes the radio, most carrier
+ * NATs keep an idle connection far longer than the default 60 seconds.
+ * The interval is doubled while the connection holds, then narrowed between the last safe
+ * and the first failed value. A disconnection caused by a timeout goes back to the safe value
+ * on the next connection. The learned values are kept for each network.
+ */
+public class KeepAliveController {
+
+    private static final int MIN_INTERVAL = MqttConnectOptions.KEEP_ALIVE_INTERVAL_DEFAULT;
+    // under the idle timeout of the most strict NATs seen on mobile networks
+    private static final int MAX_INTERVAL = 28 * 60;
+    // probing stops when the safe and the failed values are this close
+    private static final int PRECISION = 60;
+    // an interval is safe when the connection held two pings with it
+    private static final int PINGS_TO_CONFIRM = 2;
+
+    private static KeepAliveController instance;
+
+    private final Context context;
+    private final KeepAliveData data;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private String network = "";
+    private int interval = MIN_INTERVAL;
+    private long connectedAt = 0;
+    // the last probe failed, the next connection uses the safe value
+    private boolean fallback = false;
+
+    private final Runnable confirmTask = new Runnable() {
+        @Override
+        public void run() {
+            confirm();
+        }
+    };
+
+    private KeepAliveController(Context context) {
+        this.context = context.getApplicationContext();
+        this.data = new KeepAliveData(this.context);
+    }
+
+    public static synchronized KeepAliveController getInstance(Context context) {
+        if(instance == null) {
+            instance = new KeepAliveController(context);
+        }
+        return instance;
+    }
+
+    /**
+     * @return int keep-alive in seconds for the next connection on the current network
+     */
+    public synchronized int getKeepAliveInterval() {
+        network = getNetworkKey();
+        int safe = data.getSafeInterval(network, MIN_INTERVAL);
+        int failed = data.getFailedInterval(network);
+
+        if(fallback) {
+            interval = safe;
+        } else if(failed == 0) {
+            interval = Math.min(MAX_INTERVAL, safe * 2);
+        } else if(failed - safe > PRECISION) {
+            interval = (safe + failed) / 2;
+        } else {
+            interval = safe;
+        }
+
+        FlyveLog.d("Keep alive " + interval + " s on " + network + " (safe " + safe + " s)");
+        return interval;
+    }
+
+    public synchronized void onConnected() {
+        connectedAt = SystemClock.elapsedRealtime();
+        handler.removeCallbacks(confirmTask);
+        handler.postDelayed(confirmTask, PINGS_TO_CONFIRM * interval * 1000L);
+    }
+
+    /**
+     * @param cause Throwable given by the MQTT client, null on a clean disconnection
+     */
+    public synchronized void onConnectionLost(Throwable cause) {
+        if(connectedAt == 0) {
+            return;
+        }
+        long duration = SystemClock.elapsedRealtime() - connectedAt;
+        end();
+
+        // a timeout of the same network after at least one ping, the NAT dropped the connection
+        if(duration < interval * 1000L || !isTimeout(cause)
+                || !Helpers.isOnline(context) || !network.equals(getNetworkKey())) {
+            return;
+        }
+
+        int safe = data.getSafeInterval(network, MIN_INTERVAL);
+        if(interval <= safe) {
+            // the network is more strict than before
+            safe = Math.max(MIN_INTERVAL, interval / 2);
+        }
+        data.setIntervals(network, safe, interval);
+        fallback = true;
+        FlyveLog.d("Keep alive " + interval + " s too long on " + network + ", back to " + safe + " s");
+    }
+
+    /**
+     * The connection is closed by the agent
+     */
+    public synchronized void onDisconnected() {
+        if(connectedAt != 0) {
+            end();
+        }
+    }
+
+    /**
+     * @return long radio wakeups avoided since the enrollment
+     */
+    public long getAvoidedWakeups() {
+        return data.getAvoidedWakeups();
+    }
+
+    private synchronized void confirm() {
+        if(connectedAt == 0 || !network.equals(getNetworkKey())) {
+            return;
+        }
+
+        int failed = data.getFailedInterval(network);
+        if(failed != 0 && failed <= interval) {
+            failed = 0;
+        }
+        data.setIntervals(network, interval, failed);
+        fallback = false;
+        FlyveLog.d("Keep alive " + interval + " s is safe on " + network);
+    }
+
+    private void end() {
+        handler.removeCallbacks(confirmTask);
+        long seconds = (SystemClock.elapsedRealtime() - connectedAt) / 1000;
+        connectedAt = 0;
+
+        long avoided = seconds / MIN_INTERVAL - seconds / interval;
+        if(avoided > 0) {
+            long total = data.addAvoidedWakeups(avoided);
+            Helpers.storeLog("MQTT", "Keep alive", "Radio wakeups avoided: " + avoided + ", total: " + total);
+        }
+    }
+
+    private static boolean isTimeout(Throwable cause) {
+        for (Throwable error = cause; error != null; error = error.getCause()) {
+            if(error instanceof SocketTimeoutException) {
+                return true;
+            }
+            if(error instanceof MqttException) {
+                int reason = ((MqttException) error).getReasonCode();
+                // the ping was not answered, a reset or an EOF is a broker restart or a network change
+                if(reason == MqttException.REASON_CODE_CLIENT_TIMEOUT) {
+                    return true;
+                }
+            }
+            if(error.getCause() == error) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return String type of the network with the SSID of the Wi-Fi or the APN of the mobile network
+     */
+    private String getNetworkKey() {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo netInfo = cm.getActiveNetworkInfo();
+            if(netInfo == null) {
+                return "";
+            }
+            String extra = netInfo.getExtraInfo();
+            return netInfo.getTypeName() + ":" + (extra == null ? "" : extra);
+        } catch (Exception ex) {
+            FlyveLog.e(this.getClass().getName() + ", getNetworkKey", ex.getMessage());
+            return "";
+        }
+    }
+}
@@ -28,17 +28,18 @@ import android.util.Log;
 
 import org.eclipse.paho.android.service.MqttAndroidClient;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.flyve.mdm.agent.core.Routes;
 import org.flyve.mdm.agent.data.database.MqttData;
-import org.flyve.mdm.agent.data.database.TopicsData;
 import org.flyve.mdm.agent.data.database.entity.Topics;
-import org.flyve.mdm.agent.data.database.setup.AppDataBase;
 import org.flyve.mdm.agent.receivers.FlyveAdminReceiver;
 import org.flyve.mdm.agent.utils.FlyveLog;
 import org.flyve.policies.manager.AndroidPolicies;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class MqttController {
@@ -46,6 +47,8 @@ public class MqttController {
     private static final String ERROR = "ERROR";
     private static final String MQTT_SEND = "MQTT Send";
     private static final String UTF_8 = "UTF-8";
+    // at least once, the broker keeps the messages of the persistent session until they are acknowledged
+    private static final int SUBSCRIBE_QOS = 1;
 
     private ArrayList<String> arrTopics;
     private MqttAndroidClient client;
@@ -74,50 +77,42 @@ public class MqttController {
     /**
      * Unsubscribe to the topic
      * When come from MQTT has a format like this {"subscribe":[{"topic":null}]}
+     * All the fleets are removed with one request to the broker
      */
     public void unsubscribe() {
-        final AppDataBase dataBase = AppDataBase.getAppDatabase(context);
-        List<Topics> topics = dataBase.TopicsDao().getFleets();
-        if(!topics.isEmpty()) {
-
-            for (int i = 0; i < topics.size(); i++) {
-                final Topics topicToUnsubscribe = topics.get(i);
-                try {
-                    IMqttToken subToken = client.unsubscribe(topicToUnsubscribe.topic);
-                    subToken.setActionCallback(new IMqttActionListener() {
-                        @Override
-                        public void onSuccess(IMqttToken asyncActionToken) {
-                            FlyveLog.d("Unsubscribe from fleet "+topicToUnsubscribe.topic);
-                            dataBase.TopicsDao().delete(topicToUnsubscribe);
-                        }
-
-                        @Override
-                        public void onFailure(IMqttToken asyncActionToken,
-                                              Throwable exception) {
-                            // The unsubscription could not be performed, maybe the user was not
-                            // authorized to subscribe on the specified topic e.g. using wildcards
-                            String errorMessage = " unknown";
-                            if(exception != null) {
-                                errorMessage = exception.getMessage();
-                                Log.d("Unsubscribe","Error", exception);
-                            }
-                            FlyveLog.e(this.getClass().getName() + ", unsubscribe", "ERROR on unsubscribe: " + errorMessage);
-
-                            broadcastReceivedLog(ERROR, "Error on unsubscribe", errorMessage);
-                        }
-                    });
-
-
-                } catch (Exception ex) {
-                    FlyveLog.e(this.getClass().getName() + ", unsubscribe", ex.getMessage());
-                }
-            }
+        final SubscriptionTable table = SubscriptionTable.getInstance(context);
+        final List<String> fleets = table.getFleets();
+        if(fleets.isEmpty()) {
+            return;
+        }
 
+        try {
+            IMqttToken subToken = client.unsubscribe(fleets.toArray(new String[fleets.size()]));
+            subToken.setActionCallback(new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    FlyveLog.d("Unsubscribe from fleet " + fleets);
+                    table.remove(fleets);
+                }
 
+                @Override
+                public void onFailure(IMqttToken asyncActionToken,
+                                      Throwable exception) {
+                    // The unsubscription could not be performed, maybe the user was not
+                    // authorized to subscribe on the specified topic e.g. using wildcards
+                    String errorMessage = " unknown";
+                    if(exception != null) {
+                        errorMessage = exception.getMessage();
+                        Log.d("Unsubscribe","Error", exception);
+                    }
+                    FlyveLog.e(this.getClass().getName() + ", unsubscribe", "ERROR on unsubscribe: " + errorMessage);
 
+                    broadcastReceivedLog(ERROR, "Error on unsubscribe", errorMessage);
+                }
+            });
+        } catch (Exception ex) {
+            FlyveLog.e(this.getClass().getName() + ", unsubscribe", ex.getMessage());
         }
-
-
     }
 
     /**
@@ -125,56 +120,55 @@ public class MqttController {
      * When come from MQTT has a format like this {"subscribe":[{"topic":"/2/fleet/22"}]}
      */
     public void subscribe(final String channel) {
-        if(channel == null || channel.contains("null")) {
-            //case of unsubscribe
-            AppDataBase dataBase = AppDataBase.getAppDatabase(context);
-            dataBase.TopicsDao().deleteFleets();
-            return;
+        List<String> channels = new ArrayList<>();
+        channels.add(channel);
+        subscribe(channels);
+    }
+
+    /**
+     * Subscribe to the topics and to every topic of the table not subscribed yet,
+     * with one request to the broker
+     * @param channels List of the topics
+     */
+    public void subscribe(final List<String> channels) {
+        final SubscriptionTable table = SubscriptionTable.getInstance(context);
+
+        List<String> newChannels = new ArrayList<>();
+        for (String channel : channels) {
+            if(channel == null || channel.contains("null")) {
+                //case of unsubscribe
+                table.remove(table.getFleets());
+            } else {
+                newChannels.add(channel);
+            }
         }
 
-        final List<Topics> topics = new TopicsData(context).setValue(channel, 0);
+        final List<Topics> topics = table.add(newChannels, SUBSCRIBE_QOS);
 
-        // if topic null
-        if(topics==null || topics.isEmpty()) {
+        // nothing to subscribe
+        if(topics.isEmpty()) {
             return;
         }
 
-        //use List instead array because we need to keep only topic with status 0
-        List<String> lstTopics = new ArrayList<>();
-        List<Integer> lstQos = new ArrayList<>();
-
-        for(int i=0; i< topics.size(); i++) {
-            // if not subscribed
-            if(topics.get(i).status != 1) {
-                lstTopics.add(topics.get(i).topic);
-                lstQos.add(topics.get(i).qos);
-            }
+        String[] arrayTopics = new String[topics.size()];
+        int[] arrayQos = new int[topics.size()];
+        for (int i = 0; i < topics.size(); i++) {
+            arrayTopics[i] = topics.get(i).topic;
+            arrayQos[i] = topics.get(i).qos;
         }
 
         try {
-
-
-            String[] arrayTopics;
-            arrayTopics = lstTopics.toArray(new String[lstTopics.size()]);
-
-            //transform list of Integer to array of int 'primitive'
-            int size = lstQos.size();
-            int[] arrayQos = new int[size];
-            Integer[] temp = lstQos.toArray(new Integer[size]);
-            for (int n = 0; n < size; ++n) {
-                arrayQos[n] = temp[n];
-            }
-
             IMqttToken subToken = client.subscribe(arrayTopics, arrayQos);
             subToken.setActionCallback(new IMqttActionListener() {
                 @Override
                 public void onSuccess(IMqttToken asyncActionToken) {
                     // The message was published
-                    for(String topic : asyncActionToken.getTopics()) {
-                        new TopicsData(context).setStatusTopic(topic, 1);
+                    String[] subscribed = asyncActionToken.getTopics();
+                    table.setSubscribed(subscribed);
+                    for(String topic : subscribed) {
                         FlyveLog.d("Subscribe from fleet "+topic);
-                        broadcastReceivedLog(" -> " + topic, "Subscribed", String.valueOf(asyncActionToken.getTopics().length));
                     }
+                    broadcastReceivedLog(" -> " + Arrays.toString(subscribed), "Subscribed", String.valueOf(subscribed.length));
                 }
 
                 @Override
@@ -197,8 +191,22 @@ public class MqttController {
         }
     }
 
-
-
+    /**
+     * Publish a reply of the agent
+     * @param topic String full topic
+     * @param payload String body
+     * @param qos int quality of service
+     * @return IMqttDeliveryToken of the message, deliveryComplete receives the same token
+     * @throws Exception if the client is not connected or the in-flight window of the client is full
+     */
+    public IMqttDeliveryToken publish(String topic, String payload, int qos) throws Exception {
+        MqttMessage message = new MqttMessage(payload.getBytes(UTF_8));
+        message.setQos(qos);
+        message.setRetained(false);
+        IMqttDeliveryToken token = client.publish(topic, message);
+        broadcastReceivedLog(MQTT_SEND, topic, payload);
+        return token;
+    }
 
     /**
      * Broadcast the received log
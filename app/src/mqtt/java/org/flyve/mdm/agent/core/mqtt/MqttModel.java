@@ -37,11 +37,13 @@ import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.flyve.mdm.agent.R;
 import org.flyve.mdm.agent.core.CommonErrorType;
+import org.flyve.mdm.agent.core.outbox.OutboxWorker;
 import org.flyve.mdm.agent.data.database.MqttData;
 import org.flyve.mdm.agent.data.database.PoliciesData;
-import org.flyve.mdm.agent.data.database.TopicsData;
 import org.flyve.mdm.agent.data.localstorage.AppData;
+import org.flyve.mdm.agent.policies.InboundQueue;
 import org.flyve.mdm.agent.policies.PoliciesAsyncTask;
+import org.flyve.mdm.agent.policies.TopicRouter;
 import org.flyve.mdm.agent.services.MQTTService;
 import org.flyve.mdm.agent.ui.MainActivity;
 import org.flyve.mdm.agent.utils.FlyveLog;
@@ -49,18 +51,8 @@ import org.flyve.mdm.agent.utils.Helpers;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.FileInputStream;
-import java.security.KeyStore;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
-import java.util.Date;
-import java.util.Enumeration;
-import java.util.Timer;
-import java.util.TimerTask;
-
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MqttModel implements mqtt.Model {
 
@@ -71,15 +63,11 @@ public class MqttModel implements mqtt.Model {
     private Boolean connected = false;
     private String url;
 
-    private Timer reconnectionTimer;
-    private int reconnectionCounter = 0;
-    private int reconnectionPeriod = 1000;
-    private int reconnectionDelay = 5; //delay in milliseconds before task is to be executed.
-    private long timeLastReconnection = 0;
-    private Boolean executeConnection = true;
-    private int tryEverySeconds = 30;
+    private ReconnectScheduler reconnectScheduler;
+    private boolean queueProcessorSet = false;
 
     private MqttController policiesController = null;
+    private MqttPublisher publisher = null;
 
     public MqttModel(mqtt.Presenter presenter) {
         this.presenter = presenter;
@@ -128,12 +116,18 @@ public class MqttModel implements mqtt.Model {
             protocol = "ssl";
         }
 
-        String clientId;
+        final AppData appData = new AppData(context);
+        final boolean cleanSession = appData.getMqttCleanSession();
         MqttConnectOptions options;
 
         if(client==null) {
             try {
-                clientId = MqttClient.generateClientId();
+                // the broker keeps the session and the messages of a client id
+                String clientId = appData.getMqttClientId();
+                if(clientId.isEmpty()) {
+                    clientId = MqttClient.generateClientId();
+                    appData.setMqttClientId(clientId);
+                }
                 client = new MqttAndroidClient(context, protocol + "://" + mBroker + ":" + mPort, clientId);
             } catch (ExceptionInInitializerError ex) {
                 showDetailError(context, CommonErrorType.MQTT_IN_INITIALIZER_ERROR, ex.getMessage());
@@ -148,11 +142,14 @@ public class MqttModel implements mqtt.Model {
             options = new MqttConnectOptions();
             options.setPassword(mPassword.toCharArray());
             options.setUserName(mUser);
-            options.setCleanSession(true);
-            options.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1);
+            options.setCleanSession(cleanSession);
+            options.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
             options.setConnectionTimeout(MqttConnectOptions.CONNECTION_TIMEOUT_DEFAULT);
-            options.setKeepAliveInterval(MqttConnectOptions.KEEP_ALIVE_INTERVAL_DEFAULT);
-            options.setAutomaticReconnect(true);
+            // the longest interval this network accepts, fewer pings wake the radio
+            options.setKeepAliveInterval(KeepAliveController.getInstance(context).getKeepAliveInterval());
+            options.setMaxInflight(MqttPublisher.DEFAULT_WINDOW);
+            // the reconnection is done by the ReconnectScheduler with backoff and jitter
+            options.setAutomaticReconnect(false);
 
             // Create a testament to send when MQTT connection is down
             String will = "{ \"online\": false }";
@@ -162,45 +159,8 @@ public class MqttModel implements mqtt.Model {
             if (mTLS.equals("1")) {
 
                 try{
-                    //load ssl certificate from broker and put it in file
-                    //need to be done in anothger
-                    new MqttDownloadSSL().execute(mBroker, Integer.valueOf(mPort), context);
-
-                    TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-
-                    KeyStore caKeyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-                    caKeyStore.load(null, null);
-
-                    CertificateFactory certificationFactory = CertificateFactory.getInstance("X.509");
-
-                    //load certificate file previously loaded from broker
-                    FileInputStream inputStream;
-                    inputStream = context.openFileInput("broker_cert");
-                    X509Certificate ca = (X509Certificate) certificationFactory.generateCertificate(inputStream);
-                    String alias = ca.getSubjectX500Principal().getName();
-                    // Set proper alias name
-                    caKeyStore.setCertificateEntry(alias, ca);
-                    trustManagerFactory.init(caKeyStore);
-
-                    FlyveLog.v("Certificate Owner: %s", ca.getSubjectDN().toString());
-                    FlyveLog.v("Certificate Issuer: %s", ca.getIssuerDN().toString());
-                    FlyveLog.v("Certificate Serial Number: %s", ca.getSerialNumber().toString());
-                    FlyveLog.v("Certificate Algorithm: %s", ca.getSigAlgName());
-                    FlyveLog.v("Certificate Version: %s", ca.getVersion());
-                    FlyveLog.v("Certificate OID: %s", ca.getSigAlgOID());
-                    Enumeration<String> aliasesCA = caKeyStore.aliases();
-                    for (; aliasesCA.hasMoreElements(); ) {
-                        String o = aliasesCA.nextElement();
-                        FlyveLog.v("Alias: %s isKeyEntry:%s isCertificateEntry:%s", o, caKeyStore.isKeyEntry(o), caKeyStore.isCertificateEntry(o));
-                    }
-
-                    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("X509");
-                    keyManagerFactory.init(null,null);
-
-                    // SSL
-                    SSLContext sslContext = SSLContext.getInstance("TLS");
-                    sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
-                    options.setSocketFactory(sslContext.getSocketFactory());
+                    // built again only when the certificate of the broker changes
+                    options.setSocketFactory(MqttSSLContextCache.getInstance().getSocketFactory(context, mBroker, Integer.valueOf(mPort)));
                 }catch (Exception ex) {
                     //restart connection
                     setStatus(context, callback, false);
@@ -213,8 +173,8 @@ public class MqttModel implements mqtt.Model {
             return;
         }
 
-        // set all the topics on database to unconnected
-        new TopicsData(context).clearTopics();
+        // start processing the messages left by the last run
+        getInboundQueue(context);
 
         try {
             IMqttToken token = client.connect(options);
@@ -226,22 +186,43 @@ public class MqttModel implements mqtt.Model {
                     // Everything ready waiting for message
                     policiesController = new MqttController(context, client);
 
+                    // the replies go on this connection while it is up
+                    publisher = new MqttPublisher(policiesController, mTopic, MqttPublisher.DEFAULT_WINDOW);
+                    OutboxWorker.getInstance(context).setReplyChannel(publisher);
+
                     // We are connected
                     setStatus(context, callback, true);
 
-                    // set the reconnection counter to 0
-                    reconnectionCounter = 0;
+                    // reset the reconnection backoff
+                    ReconnectScheduler scheduler = getReconnectScheduler(context, callback);
+                    if(scheduler.getAttempts() > 0) {
+                        Helpers.storeLog("MQTT", "Reconnection Success", "");
+                    }
+                    scheduler.onConnected();
+                    KeepAliveController.getInstance(context).onConnected();
+
+                    // the broker kept the subscriptions, subscribing again would send the retained messages again
+                    // (the session present flag of the CONNACK exists since MQTT 3.1.1)
+                    if(!cleanSession && asyncActionToken.getSessionPresent()) {
+                        FlyveLog.d("MQTT session restored");
+                        return;
+                    }
 
-                    // main topic
-                    String topic = mTopic + "/#";
-                    policiesController.subscribe(topic);
+                    // set all the topics to unconnected, the fleets are subscribed again with them
+                    SubscriptionTable.getInstance(context).setAllUnsubscribed();
 
-                    // subscribe to manifest
-                    policiesController.subscribe("FlyvemdmManifest/Status/Version");
+                    // main topic and manifest
+                    List<String> topics = new ArrayList<>();
+                    topics.add(mTopic + "/#");
+                    topics.add("FlyvemdmManifest/Status/Version");
+                    policiesController.subscribe(topics);
                 }
 
                 @Override
                 public void onFailure(IMqttToken asyncActionToken, Throwable ex) {
+                    if(mTLS.equals("1")) {
+                        MqttSSLContextCache.getInstance().onConnectionFailure(context, mBroker, Integer.valueOf(mPort), ex);
+                    }
                     setStatus(context, callback, false);
                     String messageError;
                     if(ex.getCause() != null) {
@@ -260,117 +241,79 @@ public class MqttModel implements mqtt.Model {
     }
 
     private void reconnect(final Context context, final MqttCallback callback) {
-        if(reconnectionTimer==null) {
-            reconnectionTimer = new Timer();
-        }
+        getReconnectScheduler(context, callback).scheduleReconnect();
+    }
 
-        reconnectionTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-
-                // Check the reconnection every 30 seconds
-                if(timeLastReconnection>0) {
-                    long currentDate = new Date().getTime();
-                    long diff = (currentDate - timeLastReconnection);
-                    long seconds = diff / 1000 % 60;
-                    if(seconds>=tryEverySeconds) {
-                        timeLastReconnection = currentDate;
-                        executeConnection = true;
-                    } else {
-                        executeConnection = false;
-                        return;
+    private synchronized ReconnectScheduler getReconnectScheduler(final Context context, final MqttCallback callback) {
+        if(reconnectScheduler == null) {
+            reconnectScheduler = new ReconnectScheduler(context, new Runnable() {
+                @Override
+                public void run() {
+                    String message = "Reconnecting " + getReconnectScheduler(context, callback).getAttempts() + " times";
+                    Helpers.storeLog("MQTT", "Reconnection", message);
+                    if(new AppData(context).getEnableNotificationConnection()) {
+                        Helpers.sendToNotificationBar(context, 101, context.getString(R.string.app_name), message, false, MainActivity.class, "service_disconnect");
                     }
-                } else {
-                    timeLastReconnection = new Date().getTime();
-                    executeConnection = true;
-                }
 
-                if(!isConnected()) {
-                    if(executeConnection) {
-                        reconnectionCounter++;
-                        String message = "Reconnecting " + reconnectionCounter + " times";
-                        Helpers.storeLog("MQTT", "Reconnection", message);
-                        if(new AppData(context).getEnableNotificationConnection()) {
-                            Helpers.sendToNotificationBar(context, 101, context.getString(R.string.app_name), message, false, MainActivity.class, "service_disconnect");
-                        }
-
-                        FlyveLog.d(message);
-                        connect(context, callback);
-                    }
-                } else {
-                    FlyveLog.d("Reconnection finish");
-                    Helpers.storeLog("MQTT", "Reconnection Success", "");
-                    reconnectionCounter = 0;
-                    reconnectionTimer.cancel();
-                    reconnectionTimer = null;
+                    FlyveLog.d(message);
+                    connect(context, callback);
                 }
-            }
-        }, reconnectionDelay, reconnectionPeriod);
+            });
+        }
+        return reconnectScheduler;
     }
 
     public void messageArrived(Context context, String topic, MqttMessage message) {
-        int priority = topic.contains("fleet") ? 0 : 1;
-
-        String messageBody = new String(message.getPayload());
-        MqttController mqttController = new MqttController(context, getMqttClient());
-
         if(topic.isEmpty()) {
             // exit if the topic if empty
             return;
         }
 
+        // saved off the main thread, processed at the pace of the policies
+        getInboundQueue(context).add(topic, new String(message.getPayload()));
+    }
+
+    private synchronized InboundQueue getInboundQueue(final Context context) {
+        InboundQueue queue = InboundQueue.getInstance(context);
+        if(!queueProcessorSet) {
+            queueProcessorSet = true;
+            queue.setProcessor(new InboundQueue.MessageProcessor() {
+                @Override
+                public void process(String topic, String message) {
+                    processMessage(context, topic, message);
+                }
+            });
+        }
+        return queue;
+    }
+
+    /**
+     * Execute a message of the queue, runs on the PolicyExecutor thread
+     */
+    private void processMessage(Context context, String topic, String messageBody) {
         // Delete policy information
         if(messageBody.contains("default")) {
             try {
                 String taskId = new JSONObject(messageBody).getString("taskId");
                 new PoliciesData(context).removeValue(taskId);
-                FlyveLog.i("Deleting policy " + message + " - " + topic);
+                FlyveLog.i("Deleting policy " + messageBody + " - " + topic);
             } catch (Exception ex) {
-                FlyveLog.e("fcm", "error deleting policy " + message + " - " + topic, ex.getMessage());
+                FlyveLog.e("fcm", "error deleting policy " + messageBody + " - " + topic, ex.getMessage());
             }
             return;
         }
 
-        //Command/Policies
-        new PoliciesAsyncTask().execute(context, PoliciesAsyncTask.POLICIES, topic, messageBody, this.client);
-
-        // Command/Ping
-        if(topic.toLowerCase().contains("ping")) {
-            new PoliciesAsyncTask().execute(context, PoliciesAsyncTask.PING, topic,messageBody, this.client);
-        }
-
-        // Command/Geolocate
-        if(topic.toLowerCase().contains("geolocate")) {
-            new PoliciesAsyncTask().execute(context, PoliciesAsyncTask.GEOLOCATE, topic,messageBody, this.client);
-        }
-
-        // Command/Inventory
-        if(topic.toLowerCase().contains("inventory")) {
-            new PoliciesAsyncTask().execute(context, PoliciesAsyncTask.INVENTORY, topic,messageBody, this.client);
-        }
-
-        // Command/Wipe
-        if(topic.toLowerCase().contains("wipe")) {
-            new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.WIPE, topic,messageBody);
-        }
-
-        // Command/Unenroll
-        if(topic.toLowerCase().contains("unenroll")) {
-            new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.UNENROLL, topic,messageBody);
-        }
-
-        // Command/Lock
-        if(topic.toLowerCase().contains("lock")) {
-            new PoliciesAsyncTask().execute(context,PoliciesAsyncTask.LOCK, topic,messageBody);
-        }
+        TopicRouter.Route route = TopicRouter.dispatch(context, topic, messageBody);
 
         // Command/Subscribe
-        if(topic.toLowerCase().contains("subscribe")) {
+        if(route.action == TopicRouter.SUBSCRIBE) {
+            MqttController mqttController = new MqttController(context, getMqttClient());
             try {
                 JSONObject jsonObj = new JSONObject(messageBody);
 
                 if(jsonObj.has("subscribe")) {
                     JSONArray jsonTopics = jsonObj.getJSONArray("subscribe");
+                    List<String> channels = new ArrayList<>();
                     for(int i=0; i<jsonTopics.length();i++) {
                         JSONObject jsonTopic = jsonTopics.getJSONObject(i);
 
@@ -378,9 +321,14 @@ public class MqttModel implements mqtt.Model {
                         if(channel == null || channel.contains("null")) {
                             mqttController.unsubscribe();
                         }else{
-                            mqttController.subscribe(channel);
+                            channels.add(channel);
                         }
                     }
+
+                    // one request to the broker for all the topics
+                    if(!channels.isEmpty()) {
+                        mqttController.subscribe(channels);
+                    }
                 }
             } catch (Exception ex) {
                 showDetailError(context, CommonErrorType.MQTT_SUBSCRIBE, ex.getMessage());
@@ -396,6 +344,12 @@ public class MqttModel implements mqtt.Model {
 
     @Override
     public void onDestroy(Context context) {
+        if(reconnectScheduler != null) {
+            reconnectScheduler.stop();
+            reconnectScheduler = null;
+        }
+        KeepAliveController.getInstance(context).onDisconnected();
+        stopPublisher(context);
         Helpers.deleteMQTTCache(context);
         try {
             context.startService(new Intent(context, MQTTService.class));
@@ -406,6 +360,11 @@ public class MqttModel implements mqtt.Model {
 
     @Override
     public void deliveryComplete(Context context, IMqttDeliveryToken token) {
+        MqttPublisher current = publisher;
+        if(current != null) {
+            current.deliveryComplete(token);
+        }
+
         try {
             FlyveLog.d("deliveryComplete Token: " + token.isComplete() + " : " + token.getMessage().toString());
             Helpers.storeLog(context.getString(R.string.mqtt_delivery), context.getString(R.string.response_id), String.valueOf(token.getMessageId()));
@@ -426,6 +385,7 @@ public class MqttModel implements mqtt.Model {
 
         // reconnect
         if(!isConnected) {
+            stopPublisher(context);
             reconnect(context, callback);
         } else {
             // send via http the status connected
@@ -438,5 +398,16 @@ public class MqttModel implements mqtt.Model {
         Helpers.sendBroadcast(isConnected, Helpers.BROADCAST_STATUS, context);
     }
 
+    /**
+     * The replies not acknowledged go back to the outbox and are sent by HTTP
+     */
+    private void stopPublisher(Context context) {
+        if(publisher != null) {
+            OutboxWorker.getInstance(context).setReplyChannel(null);
+            publisher.connectionLost();
+            publisher = null;
+        }
+    }
+
 
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.mqtt;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.flyve.mdm.agent.core.outbox.ReplyChannel;
+import org.flyve.mdm.agent.data.database.entity.Outbox;
+import org.flyve.mdm.agent.utils.FlyveLog;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Send the replies of the agent on the MQTT connection already open instead of HTTP:
+ * no TLS handshake and no session token for a pong or a task status.
+ * The replies given in the same pass are published together, up to a window of messages
+ * waiting for the broker, the next ones go when deliveryComplete frees the window.
+ * Inventory and the messages the broker does not know go by HTTP
+ */
+public class MqttPublisher implements ReplyChannel {
+
+    public static final int DEFAULT_WINDOW = 10;
+    private static final int QOS = 1;
+
+    private final MqttController controller;
+    private final String baseTopic;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Deque<Reply> waiting = new ArrayDeque<>();
+    private final Map<IMqttDeliveryToken, Reply> inFlight = new HashMap<>();
+    private int window;
+    private boolean connected = true;
+    private boolean flushPosted = false;
+
+    private static class Reply {
+        final String topic;
+        final String payload;
+        final DeliveryCallback callback;
+
+        Reply(String topic, String payload, DeliveryCallback callback) {
+            this.topic = topic;
+            this.payload = payload;
+            this.callback = callback;
+        }
+    }
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param controller MqttController of the connected client
+     * @param baseTopic String topic of the agent
+     * @param window int number of messages waiting for the broker
+     */
+    public MqttPublisher(MqttController controller, String baseTopic, int window) {
+        this.controller = controller;
+        this.baseTopic = baseTopic;
+        this.window = Math.max(1, window);
+    }
+
+    public synchronized void setWindow(int window) {
+        this.window = Math.max(1, window);
+        postFlush();
+    }
+
+    @Override
+    public boolean send(Outbox message, DeliveryCallback callback) {
+        String[] reply = toMqtt(message);
+        if(reply == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            if(!connected) {
+                return false;
+            }
+            waiting.add(new Reply(reply[0], reply[1], callback));
+            postFlush();
+        }
+        return true;
+    }
+
+    /**
+     * The broker got the message
+     * @param token IMqttDeliveryToken from MqttCallback.deliveryComplete
+     */
+    public void deliveryComplete(IMqttDeliveryToken token) {
+        complete(token, true);
+    }
+
+    /**
+     * The messages not acknowledged are given back to the outbox, it sends them again
+     */
+    public void connectionLost() {
+        List<Reply> lost;
+        synchronized (this) {
+            connected = false;
+            lost = new ArrayList<>(inFlight.values());
+            lost.addAll(waiting);
+            inFlight.clear();
+            waiting.clear();
+        }
+        for (Reply reply : lost) {
+            reply.callback.onResult(false);
+        }
+    }
+
+    private void postFlush() {
+        if(!flushPosted) {
+            flushPosted = true;
+            handler.post(flushTask);
+        }
+    }
+
+    private void flush() {
+        List<Reply> failed = new ArrayList<>();
+        synchronized (this) {
+            flushPosted = false;
+            while (connected && inFlight.size() < window && !waiting.isEmpty()) {
+                Reply reply = waiting.poll();
+                try {
+                    IMqttDeliveryToken token = controller.publish(reply.topic, reply.payload, QOS);
+                    inFlight.put(token, reply);
+                    token.setActionCallback(new IMqttActionListener() {
+                        @Override
+                        public void onSuccess(IMqttToken asyncActionToken) {
+                            // deliveryComplete follows
+                        }
+
+                        @Override
+                        public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                            complete((IMqttDeliveryToken) asyncActionToken, false);
+                        }
+                    });
+                } catch (MqttException ex) {
+                    if(ex.getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+                        // the client is full, wait for the next deliveryComplete
+                        waiting.addFirst(reply);
+                        break;
+                    }
+                    FlyveLog.e(this.getClass().getName() + ", flush", ex.getMessage());
+                    failed.add(reply);
+                } catch (Exception ex) {
+                    FlyveLog.e(this.getClass().getName() + ", flush", ex.getMessage());
+                    failed.add(reply);
+                }
+            }
+        }
+
+        for (Reply reply : failed) {
+            reply.callback.onResult(false);
+        }
+    }
+
+    private void complete(IMqttDeliveryToken token, boolean delivered) {
+        Reply reply;
+        synchronized (this) {
+            reply = inFlight.remove(token);
+            postFlush();
+        }
+        if(reply != null) {
+            reply.callback.onResult(delivered);
+        }
+    }
+
+    /**
+     * Find the topic and the body of a message of the outbox
+     * @return String[] with the topic and the body, null if it must go by HTTP
+     */
+    private String[] toMqtt(Outbox message) {
+        try {
+            if(Outbox.TYPE_TASK_STATUS.equals(message.type)) {
+                JSONObject status = new JSONObject();
+                status.put("status", message.payload);
+                return new String[] {baseTopic + "/Status/Task/" + message.url, status.toString()};
+            }
+
+            JSONObject input = new JSONObject(message.payload).optJSONObject("input");
+            if(input == null) {
+                return null;
+            }
+
+            if(input.has("_pong")) {
+                return new String[] {baseTopic + "/Status/Ping", "!"};
+            }
+
+            if(input.has("is_online")) {
+                JSONObject online = new JSONObject();
+                online.put("online", input.optBoolean("is_online", false));
+                return new String[] {baseTopic + "/Status/Online", online.toString()};
+            }
+
+            if(input.has("latitude") || input.has("_gps")) {
+                JSONObject geolocation = new JSONObject();
+                if(input.has("latitude")) {
+                    geolocation.put("latitude", input.optString("latitude"));
+                    geolocation.put("longitude", input.optString("longitude"));
+                } else {
+                    geolocation.put("gps", "off");
+                }
+                geolocation.put("datetime", input.optString("_datetime"));
+                return new String[] {baseTopic + "/Status/Geolocation", geolocation.toString()};
+            }
+        } catch (Exception ex) {
+            FlyveLog.e(this.getClass().getName() + ", toMqtt", ex.getMessage());
+        }
+        return null;
+    }
+}
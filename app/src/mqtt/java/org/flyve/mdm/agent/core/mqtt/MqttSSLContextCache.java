@@ -0,0 +1,179 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.mqtt;
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.utils.FlyveLog;
+
+import java.io.FileInputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Keep the SSLContext of the broker between the connections.
+ * The certificate of the broker is downloaded once, the KeyStore and the SSLContext
+ * are built again only when its fingerprint changes. Reusing the SSLContext keeps its
+ * session cache, so a reconnection can resume the TLS session instead of a full handshake
+ */
+public class MqttSSLContextCache {
+
+    private static final String CERT_FILE = "broker_cert";
+    private static final int SESSION_CACHE_SIZE = 4;
+    private static final int SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    private static MqttSSLContextCache instance;
+
+    private String key;
+    private SSLSocketFactory socketFactory;
+
+    private MqttSSLContextCache() {
+    }
+
+    public static synchronized MqttSSLContextCache getInstance() {
+        if(instance == null) {
+            instance = new MqttSSLContextCache();
+        }
+        return instance;
+    }
+
+    /**
+     * @param broker String host of the broker
+     * @param port int port of the broker
+     * @return SSLSocketFactory trusting the certificate of the broker
+     * @throws Exception if the certificate is not downloaded yet or can not be read
+     */
+    public synchronized SSLSocketFactory getSocketFactory(Context context, String broker, int port) throws Exception {
+        X509Certificate ca = readCertificate(context);
+        if(ca == null) {
+            download(context, broker, port);
+            throw new CertificateException("Certificate of the broker not available yet");
+        }
+
+        String currentKey = broker + ":" + port + "#" + fingerprint(ca);
+        if(socketFactory != null && currentKey.equals(key)) {
+            return socketFactory;
+        }
+
+        FlyveLog.v("Certificate Owner: %s", ca.getSubjectDN().toString());
+        FlyveLog.v("Certificate Issuer: %s", ca.getIssuerDN().toString());
+        FlyveLog.v("Certificate Serial Number: %s", ca.getSerialNumber().toString());
+
+        KeyStore caKeyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        caKeyStore.load(null, null);
+        caKeyStore.setCertificateEntry(ca.getSubjectX500Principal().getName(), ca);
+
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(caKeyStore);
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("X509");
+        keyManagerFactory.init(null, null);
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+        sslContext.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+        sslContext.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+
+        key = currentKey;
+        socketFactory = sslContext.getSocketFactory();
+        return socketFactory;
+    }
+
+    /**
+     * The broker refused the handshake, its certificate may have changed.
+     * Forget the SSLContext and download the certificate again for the next connection
+     * @param error Throwable from the connection
+     * @return boolean true if the error was a verification failure
+     */
+    public synchronized boolean onConnectionFailure(Context context, String broker, int port, Throwable error) {
+        if(!isVerificationFailure(error)) {
+            return false;
+        }
+        FlyveLog.d("TLS verification failed, download the certificate of the broker again");
+        clear();
+        download(context, broker, port);
+        return true;
+    }
+
+    public synchronized void clear() {
+        key = null;
+        socketFactory = null;
+    }
+
+    private static boolean isVerificationFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if(cause instanceof SSLHandshakeException || cause instanceof CertificateException) {
+                return true;
+            }
+            if(cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static void download(Context context, String broker, int port) {
+        new MqttDownloadSSL().execute(broker, port, context);
+    }
+
+    private static X509Certificate readCertificate(Context context) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = context.openFileInput(CERT_FILE);
+            if(inputStream.available() == 0) {
+                return null;
+            }
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        } catch (Exception ex) {
+            FlyveLog.d("Certificate of the broker not readable: " + ex.getMessage());
+            return null;
+        } finally {
+            if(inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (Exception ex) {
+                    FlyveLog.e(MqttSSLContextCache.class.getName() + ", readCertificate", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String fingerprint(X509Certificate certificate) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
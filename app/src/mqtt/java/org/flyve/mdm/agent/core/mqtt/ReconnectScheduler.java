@@ -0,0 +1,227 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.mqtt;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.flyve.mdm.agent.utils.FlyveLog;
+import org.flyve.mdm.agent.utils.Helpers;
+
+import java.util.Random;
+
+/**
+ * Schedule the reconnection to the broker with a capped exponential backoff.
+ * The whole delay is random so the devices disconnected by a restart of the broker
+ * do not come back at the same time. Without network nothing is scheduled,
+ * the connectivity callback starts the reconnection when the network is back.
+ */
+public class ReconnectScheduler {
+
+    private static final long BASE_DELAY_MS = 1000;
+    private static final long MAX_DELAY_MS = 5 * 60 * 1000;
+    // the devices of a site get the network back at the same time
+    private static final long NETWORK_JITTER_MS = 10000;
+
+    private final Context context;
+    private final Runnable reconnectAction;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+
+    private int attempts = 0;
+    private boolean pending = false;
+    // true from the loss of the connection to the next success
+    private boolean disconnected = false;
+    private Object networkListener;
+
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            pending = false;
+            if(!disconnected) {
+                return;
+            }
+            if(!Helpers.isOnline(context)) {
+                FlyveLog.d("Reconnection waiting for the network");
+                return;
+            }
+            attempts++;
+            reconnectAction.run();
+        }
+    };
+
+    /**
+     * @param context the context of the service
+     * @param reconnectAction Runnable called on the main thread to connect again
+     */
+    public ReconnectScheduler(Context context, Runnable reconnectAction) {
+        this.context = context.getApplicationContext();
+        this.reconnectAction = reconnectAction;
+        registerNetworkListener();
+    }
+
+    /**
+     * Schedule the next reconnection, does nothing if one is already waiting
+     */
+    public void scheduleReconnect() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                disconnected = true;
+                if(!pending && Helpers.isOnline(context)) {
+                    schedule(nextDelay());
+                }
+            }
+        });
+    }
+
+    /**
+     * The connection succeeded, the backoff starts again from the beginning
+     */
+    public void onConnected() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                disconnected = false;
+                attempts = 0;
+                cancel();
+            }
+        });
+    }
+
+    /**
+     * @return int number of reconnections since the last success
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void stop() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+                unregisterNetworkListener();
+            }
+        });
+    }
+
+    private long nextDelay() {
+        long backoff = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempts, 20));
+        return (long) (random.nextDouble() * backoff);
+    }
+
+    private void schedule(long delay) {
+        pending = true;
+        FlyveLog.d("Reconnection in " + delay + " ms");
+        handler.postDelayed(reconnectTask, delay);
+    }
+
+    private void cancel() {
+        pending = false;
+        handler.removeCallbacks(reconnectTask);
+    }
+
+    /**
+     * The network is back, the backoff of the old network does not apply
+     */
+    private void onNetworkAvailable() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(!disconnected) {
+                    return;
+                }
+                cancel();
+                attempts = 0;
+                schedule((long) (random.nextDouble() * NETWORK_JITTER_MS));
+            }
+        });
+    }
+
+    private void registerNetworkListener() {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                registerNetworkCallback();
+            } else {
+                BroadcastReceiver receiver = new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        if(Helpers.isOnline(context)) {
+                            onNetworkAvailable();
+                        }
+                    }
+                };
+                context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+                networkListener = receiver;
+            }
+        } catch (Exception ex) {
+            FlyveLog.e(this.getClass().getName() + ", registerNetworkListener", ex.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                onNetworkAvailable();
+            }
+        };
+        cm.registerNetworkCallback(new NetworkRequest.Builder().build(), callback);
+        networkListener = callback;
+    }
+
+    private void unregisterNetworkListener() {
+        if(networkListener == null) {
+            return;
+        }
+        try {
+            if (networkListener instanceof BroadcastReceiver) {
+                context.unregisterReceiver((BroadcastReceiver) networkListener);
+            } else {
+                unregisterNetworkCallback();
+            }
+        } catch (Exception ex) {
+            FlyveLog.e(this.getClass().getName() + ", unregisterNetworkListener", ex.getMessage());
+        }
+        networkListener = null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void unregisterNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        cm.unregisterNetworkCallback((ConnectivityManager.NetworkCallback) networkListener);
+    }
+}
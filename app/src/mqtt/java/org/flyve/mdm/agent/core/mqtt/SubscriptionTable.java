@@ -0,0 +1,196 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.mqtt;
+
+import android.content.Context;
+
+import org.flyve.mdm.agent.data.database.TopicsData;
+import org.flyve.mdm.agent.data.database.entity.Topics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Topics of the agent and their subscription status.
+ * The table is read once from the database, then it is the reference: the database
+ * only follows it, with one transaction for each change of the subscriptions
+ */
+public class SubscriptionTable {
+
+    private static final int SUBSCRIBED = 1;
+    private static final int NOT_SUBSCRIBED = 0;
+
+    private static SubscriptionTable instance;
+
+    private final TopicsData topicsData;
+    private final Map<String, Topics> topics = new LinkedHashMap<>();
+
+    private SubscriptionTable(Context context) {
+        topicsData = new TopicsData(context.getApplicationContext());
+        for (Topics topic : topicsData.getAllTopics()) {
+            topics.put(topic.topic, topic);
+        }
+    }
+
+    public static synchronized SubscriptionTable getInstance(Context context) {
+        if(instance == null) {
+            instance = new SubscriptionTable(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Add the topics or update their qos, a new fleet replaces the previous one
+     * @param channels List of the topics
+     * @param qos int quality of service
+     * @return List of all the topics not subscribed yet
+     */
+    public synchronized List<Topics> add(List<String> channels, int qos) {
+        List<String> removed = new ArrayList<>();
+        List<Topics> added = new ArrayList<>();
+        List<Topics> updated = new ArrayList<>();
+
+        for (String channel : channels) {
+            Topics topic = topics.get(channel);
+            if(topic != null) {
+                if(topic.qos != qos) {
+                    topic.qos = qos;
+                    updated.add(topic);
+                }
+                continue;
+            }
+
+            // remove previous fleet to keep just one
+            if(channel.contains("fleet")) {
+                removed.addAll(removeFleetsFromTable());
+            }
+
+            topic = new Topics();
+            topic.topic = channel;
+            topic.qos = qos;
+            topic.status = NOT_SUBSCRIBED;
+            topics.put(channel, topic);
+            added.add(topic);
+        }
+
+        // a fleet replaced by another fleet of the same list
+        Iterator<Topics> iterator = added.iterator();
+        while (iterator.hasNext()) {
+            Topics topic = iterator.next();
+            if(topics.get(topic.topic) != topic) {
+                iterator.remove();
+            }
+        }
+
+        if(!removed.isEmpty() || !added.isEmpty() || !updated.isEmpty()) {
+            topicsData.applyChanges(removed, added, updated);
+        }
+
+        return getPending();
+    }
+
+    /**
+     * @return List of the topics not subscribed
+     */
+    public synchronized List<Topics> getPending() {
+        List<Topics> pending = new ArrayList<>();
+        for (Topics topic : topics.values()) {
+            if(topic.status != SUBSCRIBED) {
+                pending.add(topic);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return List of the fleet topics
+     */
+    public synchronized List<String> getFleets() {
+        List<String> fleets = new ArrayList<>();
+        for (String topic : topics.keySet()) {
+            if(topic.contains("fleet")) {
+                fleets.add(topic);
+            }
+        }
+        return fleets;
+    }
+
+    /**
+     * The broker acknowledged the subscription
+     * @param channels topics of the token
+     */
+    public synchronized void setSubscribed(String[] channels) {
+        List<String> changed = new ArrayList<>();
+        for (String channel : channels) {
+            Topics topic = topics.get(channel);
+            if(topic != null && topic.status != SUBSCRIBED) {
+                topic.status = SUBSCRIBED;
+                changed.add(channel);
+            }
+        }
+        topicsData.setStatusTopics(changed, SUBSCRIBED);
+    }
+
+    /**
+     * The broker did not keep the session, all the topics must be subscribed again
+     */
+    public synchronized void setAllUnsubscribed() {
+        for (Topics topic : topics.values()) {
+            topic.status = NOT_SUBSCRIBED;
+        }
+        topicsData.clearTopics();
+    }
+
+    /**
+     * Forget the topics, after unsubscribe or when the fleet is removed
+     * @param channels List of the topics
+     */
+    public synchronized void remove(List<String> channels) {
+        List<String> removed = new ArrayList<>();
+        for (String channel : channels) {
+            if(topics.remove(channel) != null) {
+                removed.add(channel);
+            }
+        }
+        if(!removed.isEmpty()) {
+            topicsData.applyChanges(removed, new ArrayList<Topics>(), new ArrayList<Topics>());
+        }
+    }
+
+    private List<String> removeFleetsFromTable() {
+        List<String> removed = new ArrayList<>();
+        Iterator<String> iterator = topics.keySet().iterator();
+        while (iterator.hasNext()) {
+            String topic = iterator.next();
+            if(topic.contains("fleet")) {
+                iterator.remove();
+                removed.add(topic);
+            }
+        }
+        return removed;
+    }
+}
@@ -33,6 +33,7 @@ import android.support.annotation.Nullable;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.flyve.mdm.agent.core.mqtt.KeepAliveController;
 import org.flyve.mdm.agent.core.mqtt.MqttPresenter;
 import org.flyve.mdm.agent.core.mqtt.mqtt;
 import org.flyve.mdm.agent.utils.FlyveLog;
@@ -111,6 +112,9 @@ public class MQTTService extends Service implements MqttCallback, mqtt.View {
      */
     @Override
     public void connectionLost(Throwable cause) {
+        // a timeout shortens the keep-alive of this network
+        KeepAliveController.getInstance(getApplicationContext()).onConnectionLost(cause);
+
         // send to backend that agent lost connection
         presenter.connectionLost(getApplicationContext(), MQTTService.this, cause.getMessage());
     }
@@ -0,0 +1,386 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stand-in of the Flyve MDM REST routes used by the agent, running on the loopback of the test
+ * Answers initSession, the taskstatus search and update, and the file and package metadata and
+ * content with ETag, Range and gzip like the GLPI API
+ */
+public class FlyveStandInServer {
+
+    private static final String API = "/apirest.php";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final byte[] content;
+    private final String contentSha256;
+    private final long latency;
+    private final Map<String, AtomicLong> hits = new ConcurrentHashMap<>();
+    private final AtomicLong sessions = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param contentSize int size of the file and package content
+     * @param latency long milliseconds added to each answer, like a remote server
+     */
+    public FlyveStandInServer(int contentSize, long latency) throws IOException {
+        this.latency = latency;
+        this.content = new byte[contentSize];
+        new Random(42).nextBytes(content);
+        this.contentSha256 = sha256(content);
+
+        // without it the delayed ACK of the loopback adds 40 ms to the small answers
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext(API, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    route(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Base url of the API, same as the one saved on MqttData
+     * @return String url
+     */
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + API;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public long getHits(String route) {
+        AtomicLong count = hits.get(route);
+        return count == null ? 0 : count.get();
+    }
+
+    private void hit(String route) {
+        hits.putIfAbsent(route, new AtomicLong());
+        hits.get(route).incrementAndGet();
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(API.length());
+        String query = exchange.getRequestURI().getRawQuery();
+        String method = exchange.getRequestMethod();
+        byte[] body = readBody(exchange);
+
+        sleep(latency);
+
+        if(path.startsWith("/initSession")) {
+            hit(Hits.INIT_SESSION);
+            if(query == null || !query.contains("user_token=")) {
+                sendJson(exchange, 400, "[\"ERROR_LOGIN_PARAMETERS_MISSING\",\"parameter user_token is missing\"]");
+                return;
+            }
+            sendJson(exchange, 200, "{\"session_token\":\"session-" + sessions.incrementAndGet() + "\"}");
+        } else if(path.startsWith("/search/PluginFlyvemdmTaskstatus")) {
+            hit(Hits.TASKSTATUS_SEARCH);
+            if(!checkSession(exchange)) {
+                return;
+            }
+            sendTaskStatusSearch(exchange, query);
+        } else if(path.startsWith("/PluginFlyvemdmTaskstatus/") && "PUT".equals(method)) {
+            hit(Hits.TASKSTATUS);
+            if(!checkSession(exchange)) {
+                return;
+            }
+            if(body.length == 0) {
+                sendJson(exchange, 400, "[\"ERROR_BAD_ARRAY\",\"input parameter must be an array of objects\"]");
+                return;
+            }
+            String id = path.substring("/PluginFlyvemdmTaskstatus/".length());
+            if(id.isEmpty()) {
+                sendTaskStatusUpdate(exchange, body);
+                return;
+            }
+            sendJson(exchange, 200, "[{\"" + id + "\":true,\"message\":\"\"}]");
+        } else if(path.startsWith("/PluginFlyvemdmFile/") || path.startsWith("/PluginFlyvemdmPackage/")) {
+            boolean isPackage = path.startsWith("/PluginFlyvemdmPackage/");
+            if(!checkSession(exchange)) {
+                return;
+            }
+            String id = path.substring(path.lastIndexOf('/') + 1);
+            if("application/octet-stream".equals(exchange.getRequestHeaders().getFirst("Accept"))) {
+                hit(isPackage ? Hits.PACKAGE_CONTENT : Hits.FILE_CONTENT);
+                sendContent(exchange, id);
+            } else {
+                hit(isPackage ? Hits.PACKAGE : Hits.FILE);
+                sendMetadata(exchange, id, isPackage);
+            }
+        } else {
+            hit(Hits.OTHER);
+            sendJson(exchange, 400, "[\"ERROR_RESOURCE_NOT_FOUND_NOR_COMMONDBTM\",\"resource not found\"]");
+        }
+    }
+
+    /**
+     * The search of one task has the task on criteria[1][value], the search of several tasks
+     * has them on criteria[1][criteria][i][value] and gets the task on the column 6
+     */
+    private static void sendTaskStatusSearch(HttpExchange exchange, String query) throws IOException {
+        StringBuilder data = new StringBuilder();
+        int count = 0;
+        String taskId = queryValue(query, "criteria[1][value]");
+        if(!taskId.isEmpty()) {
+            data.append(taskStatusRow(taskId));
+            count++;
+        }
+        while (!(taskId = queryValue(query, "criteria[1][criteria][" + count + "][value]")).isEmpty()) {
+            data.append(count > 0 ? "," : "").append(taskStatusRow(taskId));
+            count++;
+        }
+
+        sendJson(exchange, 200, "{\"totalcount\":" + count + ",\"count\":" + count + ",\"sort\":1,\"order\":\"ASC\","
+                + "\"data\":[" + data + "],\"content-range\":\"0-" + Math.max(0, count - 1) + "/" + count + "\"}");
+    }
+
+    private static String taskStatusRow(String taskId) {
+        return "{\"1\":\"Task " + taskId + "\",\"2\":" + (1000 + parseId(taskId)) + ",\"5\":\"pending\",\"6\":" + parseId(taskId) + "}";
+    }
+
+    /**
+     * Update of several taskstatus, the answer has one item for each of them
+     */
+    private static void sendTaskStatusUpdate(HttpExchange exchange, byte[] body) throws IOException {
+        JSONArray answer = new JSONArray();
+        try {
+            JSONArray input = new JSONObject(new String(body, "UTF-8")).getJSONArray("input");
+            for (int i = 0; i < input.length(); i++) {
+                answer.put(new JSONObject().put(input.getJSONObject(i).getString("id"), true).put("message", ""));
+            }
+        } catch (Exception ex) {
+            sendJson(exchange, 400, "[\"ERROR_BAD_ARRAY\",\"input parameter must be an array of objects\"]");
+            return;
+        }
+        sendJson(exchange, 200, answer.toString());
+    }
+
+    private void sendMetadata(HttpExchange exchange, String id, boolean isPackage) throws IOException {
+        String etag = "\"" + (isPackage ? "package-" : "file-") + id + "\"";
+        if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            hit(Hits.NOT_MODIFIED);
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        String sha256 = contentSha256;
+        String json;
+        if(isPackage) {
+            json = "{\"id\":" + id + ",\"name\":\"Package " + id + "\",\"package_name\":\"org.flyve.sample" + id + "\","
+                    + "\"alias\":\"Sample " + id + "\",\"version\":\"1.0." + id + "\",\"version_code\":\"" + id + "\","
+                    + "\"filesize\":" + content.length + ",\"sha256\":\"" + sha256 + "\",\"dl_filename\":\"sample" + id + ".apk\","
+                    + "\"entities_id\":0,\"date_creation\":\"2018-05-04 10:30:00\",\"date_mod\":\"2018-05-04 10:30:00\"}";
+        } else {
+            json = "{\"id\":" + id + ",\"name\":\"file" + id + ".pdf\",\"source\":\"0/file" + id + ".pdf\","
+                    + "\"filesize\":" + content.length + ",\"sha256\":\"" + sha256 + "\",\"comment\":\"\","
+                    + "\"entities_id\":0,\"version\":1,\"date_creation\":\"2018-05-04 10:30:00\",\"date_mod\":\"2018-05-04 10:30:00\"}";
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        sendJson(exchange, 200, json);
+    }
+
+    private void sendContent(HttpExchange exchange, String id) throws IOException {
+        long start = 0;
+        long end = content.length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if(range != null && range.startsWith("bytes=")) {
+            start = Long.parseLong(range.substring(6, range.indexOf('-')));
+            String last = range.substring(range.indexOf('-') + 1).trim();
+            if(!last.isEmpty()) {
+                end = Math.min(end, Long.parseLong(last));
+            }
+        }
+
+        if(start >= content.length && content.length > 0) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+            exchange.sendResponseHeaders(416, -1);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("ETag", "\"content-" + id + "\"");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        int length = (int) (end - start + 1);
+        if(range != null) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, length);
+        } else {
+            exchange.sendResponseHeaders(200, length == 0 ? -1 : length);
+        }
+        OutputStream output = exchange.getResponseBody();
+        output.write(content, (int) start, length);
+        output.close();
+    }
+
+    private boolean checkSession(HttpExchange exchange) throws IOException {
+        String session = exchange.getRequestHeaders().getFirst("Session-Token");
+        if(session == null || session.isEmpty()) {
+            sendJson(exchange, 401, "[\"ERROR_SESSION_TOKEN_MISSING\",\"parameter session_token is missing or empty\"]");
+            return false;
+        }
+        return true;
+    }
+
+    private static void sendJson(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] body = json.getBytes("UTF-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if(acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(body);
+            gzip.close();
+            body = bytes.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream input = exchange.getRequestBody();
+        if("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            input = new GZIPInputStream(input);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            body.write(buffer, 0, count);
+        }
+        input.close();
+        return body.toByteArray();
+    }
+
+    private static String queryValue(String query, String name) {
+        if(query == null) {
+            return "";
+        }
+        for (String pair : query.split("&")) {
+            String decoded;
+            try {
+                decoded = URLDecoder.decode(pair, "UTF-8");
+            } catch (IOException ex) {
+                decoded = pair;
+            }
+            if(decoded.startsWith(name + "=")) {
+                return decoded.substring(name.length() + 1);
+            }
+        }
+        return "";
+    }
+
+    private static long parseId(String id) {
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (Exception ex) {
+            return "";
+        }
+    }
+
+    private static void sleep(long millis) {
+        if(millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Names of the counters of the stand-in
+     */
+    public static class Hits {
+        public static final String INIT_SESSION = "initSession";
+        public static final String TASKSTATUS_SEARCH = "taskstatusSearch";
+        public static final String TASKSTATUS = "taskstatus";
+        public static final String FILE = "file";
+        public static final String FILE_CONTENT = "fileContent";
+        public static final String PACKAGE = "package";
+        public static final String PACKAGE_CONTENT = "packageContent";
+        public static final String NOT_MODIFIED = "notModified";
+        public static final String OTHER = "other";
+    }
+}
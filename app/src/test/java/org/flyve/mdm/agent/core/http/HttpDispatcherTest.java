@@ -0,0 +1,155 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Backpressure of the dispatcher: when the queue is full the least important and newest
+ * request is the one dropped, and its caller is told with onRejected
+ */
+public class HttpDispatcherTest {
+
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> rejected = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void evictsTheNewestLowPriorityCall() throws Exception {
+        HttpDispatcher dispatcher = new HttpDispatcher(1, 3);
+        CountDownLatch release = block(dispatcher);
+
+        assertTrue(dispatcher.dispatch(HttpDispatcher.PRIORITY_LOW, task("ping"), onRejected("ping")));
+        assertTrue(dispatcher.dispatch(HttpDispatcher.PRIORITY_NORMAL, task("enroll"), onRejected("enroll")));
+        assertTrue(dispatcher.dispatch(HttpDispatcher.PRIORITY_LOW, task("inventory"), onRejected("inventory")));
+        assertTrue(dispatcher.isSaturated());
+
+        // a task status pushes out the last low priority call
+        assertTrue(dispatcher.dispatch(HttpDispatcher.PRIORITY_HIGH, task("status"), onRejected("status")));
+        assertEquals(Collections.singletonList("inventory"), rejected);
+
+        // a wipe pushes out the other one
+        assertTrue(dispatcher.dispatch(HttpDispatcher.PRIORITY_CRITICAL, task("wipe"), onRejected("wipe")));
+        assertEquals(2, rejected.size());
+        assertEquals("ping", rejected.get(1));
+        assertEquals(2, dispatcher.getRejectedCount());
+
+        release.countDown();
+        waitFor(dispatcher, 4);
+
+        // run by priority
+        assertEquals(4, executed.size());
+        assertEquals("blocker", executed.get(0));
+        assertEquals("wipe", executed.get(1));
+        assertEquals("status", executed.get(2));
+        assertEquals("enroll", executed.get(3));
+    }
+
+    @Test
+    public void rejectsTheNewCallWhenNothingLessImportantWaits() throws Exception {
+        HttpDispatcher dispatcher = new HttpDispatcher(1, 2);
+        CountDownLatch release = block(dispatcher);
+
+        assertTrue(dispatcher.dispatch(HttpDispatcher.PRIORITY_HIGH, task("status 1"), onRejected("status 1")));
+        assertTrue(dispatcher.dispatch(HttpDispatcher.PRIORITY_HIGH, task("status 2"), onRejected("status 2")));
+
+        // same priority, the calls already waiting keep their place
+        assertFalse(dispatcher.dispatch(HttpDispatcher.PRIORITY_HIGH, task("status 3"), onRejected("status 3")));
+        assertFalse(dispatcher.dispatch(HttpDispatcher.PRIORITY_LOW, task("ping"), onRejected("ping")));
+        assertEquals(2, rejected.size());
+        assertEquals("status 3", rejected.get(0));
+        assertEquals("ping", rejected.get(1));
+
+        // a rejected call without callback is only counted
+        assertFalse(dispatcher.dispatch(HttpDispatcher.PRIORITY_LOW, task("geolocation"), null));
+        assertEquals(3, dispatcher.getRejectedCount());
+
+        release.countDown();
+        waitFor(dispatcher, 3);
+
+        assertEquals(3, executed.size());
+        assertEquals("status 1", executed.get(1));
+        assertEquals("status 2", executed.get(2));
+        assertFalse(executed.contains("status 3"));
+    }
+
+    /**
+     * Keep the only worker busy so the next calls wait on the queue
+     */
+    private CountDownLatch block(HttpDispatcher dispatcher) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatch(HttpDispatcher.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                executed.add("blocker");
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.getInFlight());
+        return release;
+    }
+
+    private void waitFor(HttpDispatcher dispatcher, long completed) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (dispatcher.getCompletedCount() < completed && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(completed, dispatcher.getCompletedCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executed.add(name);
+            }
+        };
+    }
+
+    private Runnable onRejected(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                rejected.add(name);
+            }
+        };
+    }
+}
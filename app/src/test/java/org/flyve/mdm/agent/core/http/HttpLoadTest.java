@@ -0,0 +1,307 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import android.app.Application;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import org.flyve.mdm.agent.core.enrollment.EnrollmentHelper;
+import org.flyve.mdm.agent.data.database.MqttData;
+import org.flyve.mdm.agent.policies.BasePolicies;
+import org.flyve.mdm.agent.policies.PoliciesFiles;
+import org.flyve.mdm.agent.policies.TaskStatusBatcher;
+import org.flyve.mdm.agent.utils.ConnectionHTTP;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowNetworkInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Replay policy messages against the stand-in server with EnrollmentHelper, PoliciesFiles and
+ * TaskStatusBatcher going through the transport seam, and report requests/sec, latency and bytes
+ * The session token is shared by all the messages and the task status are sent in groups
+ * The number of messages can be changed with -Dflyve.load.messages=N
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = Application.class)
+public class HttpLoadTest {
+
+    private static final int MESSAGES = Integer.getInteger("flyve.load.messages", 200);
+    // same as the workers of HttpDispatcher
+    private static final int WORKERS = 3;
+    private static final int CONTENT_SIZE = 128 * 1024;
+    private static final long SERVER_LATENCY = 2;
+    private static final long CALLBACK_TIMEOUT = 60;
+    // step of the clock of the main looper, the window of TaskStatusBatcher runs on it
+    private static final long LOOPER_STEP_MS = 10;
+    // the same files are deployed again, like a fleet re-assignment
+    private static final int DISTINCT_FILES = 5;
+
+    private Context context;
+    private FlyveStandInServer server;
+    private HttpTransport previousTransport;
+    private File folder;
+    private BlockingQueue<String> statuses;
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        server = new FlyveStandInServer(CONTENT_SIZE, SERVER_LATENCY);
+        server.start();
+
+        previousTransport = ConnectionHTTP.getTransport();
+        ConnectionHTTP.setTransport(new UrlConnectionTransport());
+        ConnectionHTTP.clearMetadataCache(context);
+        SessionManager.getInstance().clear();
+
+        // Wi-Fi, the downloads are not limited by the metered policy
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        shadowOf(connectivity).setActiveNetworkInfo(ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTED,
+                ConnectivityManager.TYPE_WIFI, 0, true, NetworkInfo.State.CONNECTED));
+
+        MqttData cache = new MqttData(context);
+        cache.setUrl(server.getUrl());
+        cache.setApiToken("load-test-token");
+        cache.setAgentId("1");
+        // MqttData saves on its own thread
+        while (!server.getUrl().equals(cache.getUrl()) || !"1".equals(cache.getAgentId())) {
+            Thread.sleep(5);
+        }
+
+        folder = File.createTempFile("flyve-load", "");
+        folder.delete();
+        folder.mkdirs();
+
+        statuses = new ArrayBlockingQueue<>(MESSAGES);
+        HttpStats.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        ConnectionHTTP.setTransport(previousTransport);
+        server.stop();
+        delete(folder);
+    }
+
+    @Test
+    public void replayPolicyMessages() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+        final AtomicLong failures = new AtomicLong();
+        List<Future<Void>> results = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            final int taskId = i + 1;
+            results.add(workers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        replay(taskId);
+                    } catch (IOException ex) {
+                        failures.incrementAndGet();
+                        throw ex;
+                    }
+                    return null;
+                }
+            }));
+        }
+        waitFor(results);
+        long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000L);
+        workers.shutdown();
+
+        report(elapsed);
+
+        assertEquals(0, failures.get());
+        assertEquals(MESSAGES, statuses.size());
+        for (String data : statuses) {
+            checkResponse(data);
+        }
+
+        // one initSession for all the messages
+        assertEquals(1, server.getHits(FlyveStandInServer.Hits.INIT_SESSION));
+        // the status of many tasks with one search and one update
+        long searches = server.getHits(FlyveStandInServer.Hits.TASKSTATUS_SEARCH);
+        long updates = server.getHits(FlyveStandInServer.Hits.TASKSTATUS);
+        assertTrue("taskstatus searched " + searches + " times for " + MESSAGES + " tasks", searches < MESSAGES / 4);
+        assertTrue("taskstatus updated " + updates + " times for " + MESSAGES + " tasks", updates < MESSAGES / 4);
+        assertTrue("every deploy asks for the metadata", server.getHits(FlyveStandInServer.Hits.FILE) > 0);
+        assertTrue("the deploys of the same file are revalidated", server.getHits(FlyveStandInServer.Hits.NOT_MODIFIED) > 0);
+    }
+
+    /**
+     * One policy message: every third one deploys a file, all of them send the task status
+     */
+    private void replay(int taskId) throws IOException {
+        String sessionToken = getSessionToken();
+
+        if(taskId % 3 == 0) {
+            deploy(String.valueOf(taskId % DISTINCT_FILES + 1), sessionToken, taskId);
+        }
+
+        TaskStatusBatcher.getInstance(context).add(String.valueOf(taskId), BasePolicies.FEEDBACK_DONE, new ConnectionHTTP.DataCallback() {
+            @Override
+            public void callback(String data) {
+                statuses.offer(data);
+            }
+        });
+    }
+
+    private String getSessionToken() throws IOException {
+        final BlockingQueue<String> answer = new ArrayBlockingQueue<>(1);
+        final BlockingQueue<String> error = new ArrayBlockingQueue<>(1);
+        new EnrollmentHelper(context).getActiveSessionToken(new EnrollmentHelper.EnrollCallBack() {
+            @Override
+            public void onSuccess(String data) {
+                answer.offer(data);
+            }
+
+            @Override
+            public void onError(int type, String message) {
+                error.offer(message);
+                answer.offer("");
+            }
+        });
+
+        String sessionToken = take(answer, "initSession");
+        if(sessionToken.isEmpty()) {
+            throw new IOException("initSession: " + error.poll());
+        }
+        return sessionToken;
+    }
+
+    /**
+     * Each task has its own folder so the file is downloaded again after the metadata
+     */
+    private void deploy(String fileId, String sessionToken, int taskId) throws IOException {
+        String path = folder.getPath() + "/task" + taskId + "/";
+        new PoliciesFiles(context).downloadFile(path, fileId, sessionToken, String.valueOf(taskId));
+
+        File file = new File(path, "file" + fileId + ".pdf");
+        if(file.length() != CONTENT_SIZE) {
+            throw new IOException("file " + fileId + " not deployed for the task " + taskId);
+        }
+        delete(file.getParentFile());
+    }
+
+    private static String take(BlockingQueue<String> answer, String name) throws IOException {
+        try {
+            String data = answer.poll(CALLBACK_TIMEOUT, TimeUnit.SECONDS);
+            if(data == null) {
+                throw new IOException("no answer for " + name);
+            }
+            return data;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for " + name);
+        }
+    }
+
+    private static void checkResponse(String data) throws IOException {
+        if(data.contains("EXCEPTION_HTTP") || data.contains("ERROR")) {
+            throw new IOException(data);
+        }
+    }
+
+    /**
+     * The callbacks are posted to the main looper, it runs on the thread of the test and its clock
+     * follows the real time to close the groups of task status
+     */
+    private void waitFor(List<Future<Void>> results) throws Exception {
+        long timeout = System.currentTimeMillis() + CALLBACK_TIMEOUT * 1000;
+        for (Future<Void> result : results) {
+            while (!result.isDone()) {
+                runMainLooper();
+            }
+            result.get();
+        }
+        while (statuses.size() < MESSAGES && System.currentTimeMillis() < timeout) {
+            runMainLooper();
+        }
+    }
+
+    private static void runMainLooper() throws InterruptedException {
+        Thread.sleep(LOOPER_STEP_MS);
+        ShadowLooper.idleMainLooper(LOOPER_STEP_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void report(long elapsed) {
+        long requests = 0;
+        long sent = 0;
+        long received = 0;
+        StringBuilder routes = new StringBuilder();
+        for (HttpStats.RouteStats stats : HttpStats.getInstance().getRoutes()) {
+            requests += stats.getRequests();
+            sent += stats.getBytesSent();
+            received += stats.getBytesReceived();
+            routes.append(String.format("  %-32s %6d req  p50 %5d ms  p99 %5d ms  sent %9d  received %10d%n",
+                    stats.getName(), stats.getRequests(),
+                    stats.getTotalLatency().getPercentile(50), stats.getTotalLatency().getPercentile(99),
+                    stats.getBytesSent(), stats.getBytesReceived()));
+        }
+
+        System.out.println("Replayed " + MESSAGES + " policy messages with " + WORKERS + " workers in " + elapsed + " ms"
+                + "\n  requests: " + requests + " (" + (requests * 1000 / elapsed) + " req/s)"
+                + "\n  bytes sent: " + sent + " received: " + received
+                + "\n  initSession: " + server.getHits(FlyveStandInServer.Hits.INIT_SESSION)
+                    + " taskstatus search: " + server.getHits(FlyveStandInServer.Hits.TASKSTATUS_SEARCH)
+                    + " update: " + server.getHits(FlyveStandInServer.Hits.TASKSTATUS)
+                + "\n  metadata answered with 304: " + server.getHits(FlyveStandInServer.Hits.NOT_MODIFIED)
+                    + " of " + server.getHits(FlyveStandInServer.Hits.FILE)
+                + "\n" + routes);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
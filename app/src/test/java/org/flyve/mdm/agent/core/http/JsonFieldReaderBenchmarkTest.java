@@ -0,0 +1,229 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.core.http;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compare the parse time and the memory allocated by the whole body String + JSONObject
+ * path against the streaming JsonFieldReader on the responses used by the agent
+ */
+public class JsonFieldReaderBenchmarkTest {
+
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 1000;
+
+    private static final String[] AGENT_FIELDS = {"broker", "port", "tls", "topic", "mqttpasswd", "certificate", "name",
+            "computers_id", "id", "entities_id", "plugin_flyvemdm_fleets_id", "api_token"};
+
+    @Test
+    public void readFullSession() throws Exception {
+        byte[] body = fullSession().getBytes("UTF-8");
+        String path = "session.plugin_flyvemdm_guest_profiles_id";
+
+        JsonFields fields = JsonFieldReader.read(new ByteArrayInputStream(body), path);
+        assertEquals("9", fields.getString(path));
+
+        Result tree = measure(body, new Parser() {
+            @Override
+            public String parse(InputStream stream) throws Exception {
+                return new JSONObject(toText(stream)).getJSONObject("session").getString("plugin_flyvemdm_guest_profiles_id");
+            }
+        });
+        Result streaming = measure(body, new Parser() {
+            @Override
+            public String parse(InputStream stream) throws Exception {
+                return JsonFieldReader.read(stream, "session.plugin_flyvemdm_guest_profiles_id").getString("session.plugin_flyvemdm_guest_profiles_id");
+            }
+        });
+
+        report("getFullSession", body.length, tree, streaming);
+        assertLessMemory(tree, streaming);
+    }
+
+    @Test
+    public void readAgent() throws Exception {
+        byte[] body = agent().getBytes("UTF-8");
+
+        JsonFields fields = JsonFieldReader.read(new ByteArrayInputStream(body), AGENT_FIELDS);
+        JSONObject json = new JSONObject(new String(body, "UTF-8"));
+        for (String field : AGENT_FIELDS) {
+            assertEquals(json.getString(field), fields.getString(field));
+        }
+        assertEquals(json.getInt("computers_id"), fields.getInt("computers_id"));
+
+        Result tree = measure(body, new Parser() {
+            @Override
+            public String parse(InputStream stream) throws Exception {
+                JSONObject json = new JSONObject(toText(stream));
+                StringBuilder values = new StringBuilder();
+                for (String field : AGENT_FIELDS) {
+                    values.append(json.getString(field));
+                }
+                return values.toString();
+            }
+        });
+        Result streaming = measure(body, new Parser() {
+            @Override
+            public String parse(InputStream stream) throws Exception {
+                JsonFields fields = JsonFieldReader.read(stream, AGENT_FIELDS);
+                StringBuilder values = new StringBuilder();
+                for (String field : AGENT_FIELDS) {
+                    values.append(fields.getString(field));
+                }
+                return values.toString();
+            }
+        });
+
+        report("pluginFlyvemdmAgent", body.length, tree, streaming);
+    }
+
+    @Test
+    public void readTaskStatusSearch() throws Exception {
+        String body = "{\"totalcount\":1,\"count\":1,\"sort\":1,\"order\":\"ASC\",\"data\":[{\"1\":\"Task 12\",\"2\":45,\"5\":\"pending\"}],\"content-range\":\"0-0/1\"}";
+
+        JsonFields fields = JsonFieldReader.read(new ByteArrayInputStream(body.getBytes("UTF-8")), "data.0.2");
+        assertEquals("45", fields.getString("data.0.2"));
+    }
+
+    @Test
+    public void missingFieldsAndErrors() throws Exception {
+        String body = "[\"ERROR_SESSION_TOKEN_MISSING\",\"parameter session_token is missing or empty\"]";
+
+        JsonFields fields = JsonFieldReader.read(new ByteArrayInputStream(body.getBytes("UTF-8")), "session_token");
+        assertTrue(!fields.has("session_token"));
+        assertEquals("fallback", fields.optString("session_token", "fallback"));
+        assertEquals(-1, fields.optLong("filesize", -1));
+    }
+
+    private interface Parser {
+        String parse(InputStream stream) throws Exception;
+    }
+
+    private static class Result {
+        long nanos;
+        long bytes = -1;
+    }
+
+    private static Result measure(byte[] body, Parser parser) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            parser.parse(new ByteArrayInputStream(body));
+        }
+
+        ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = mxBean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) mxBean : null;
+        long threadId = Thread.currentThread().getId();
+
+        Result result = new Result();
+        long startBytes = allocation != null ? allocation.getThreadAllocatedBytes(threadId) : -1;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parser.parse(new ByteArrayInputStream(body));
+        }
+        result.nanos = (System.nanoTime() - start) / ITERATIONS;
+        if(allocation != null && startBytes >= 0) {
+            result.bytes = (allocation.getThreadAllocatedBytes(threadId) - startBytes) / ITERATIONS;
+        }
+        return result;
+    }
+
+    private static void assertLessMemory(Result tree, Result streaming) {
+        if(tree.bytes >= 0 && streaming.bytes >= 0) {
+            assertTrue("streaming allocated " + streaming.bytes + " bytes, tree " + tree.bytes, streaming.bytes < tree.bytes);
+        }
+    }
+
+    private static void report(String route, int size, Result tree, Result streaming) {
+        System.out.println(route + " (" + size + " bytes)"
+                + "\n  String + JSONObject: " + tree.nanos / 1000 + " us, " + tree.bytes + " bytes allocated"
+                + "\n  JsonFieldReader:     " + streaming.nanos / 1000 + " us, " + streaming.bytes + " bytes allocated");
+    }
+
+    /**
+     * Same conversion of ConnectionHTTP.inputStreamToString
+     */
+    private static String toText(InputStream stream) throws Exception {
+        BufferedReader br = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = br.readLine()) != null) {
+            sb.append(line + "\n");
+        }
+        br.close();
+        return sb.toString();
+    }
+
+    private static String fullSession() {
+        StringBuilder rights = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            if(i > 0) {
+                rights.append(",");
+            }
+            rights.append("\"right_").append(i).append("\":").append(i * 31);
+        }
+
+        StringBuilder entities = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            if(i > 0) {
+                entities.append(",");
+            }
+            entities.append("{\"id\":").append(i).append(",\"name\":\"Entity ").append(i)
+                    .append("\",\"is_recursive\":0,\"completename\":\"Root entity > Entity ").append(i).append("\"}");
+        }
+
+        return "{\"session\":{\"valid_id\":\"flyve\",\"glpi_currenttime\":\"2018-05-04 10:30:00\",\"glpi_use_mode\":0,"
+                + "\"glpiID\":\"5\",\"glpiname\":\"flyve-user@teclib.com\",\"glpilanguage\":\"en_GB\","
+                + "\"glpiactiveprofile\":{\"id\":9,\"name\":\"Flyve MDM guest users\",\"interface\":\"central\"," + rights + "},"
+                + "\"glpiactiveentities\":[" + entities + "],"
+                + "\"plugin_flyvemdm_guest_profiles_id\":9,\"glpiactive_entity\":0}}";
+    }
+
+    private static String agent() {
+        StringBuilder certificate = new StringBuilder("-----BEGIN CERTIFICATE-----\\n");
+        for (int i = 0; i < 25; i++) {
+            certificate.append("MIIDXTCCAkWgAwIBAgIJAKL0UG+mRKSzMA0GCSqGSIb3DQEBCwUAMEUxCzAJBgNV\\n");
+        }
+        certificate.append("-----END CERTIFICATE-----");
+
+        return "{\"id\":12,\"name\":\"flyve-user@teclib.com\",\"version\":\"2.0.0\",\"computers_id\":34,"
+                + "\"entities_id\":0,\"plugin_flyvemdm_fleets_id\":3,\"wipe\":0,\"lock\":0,\"enroll_status\":\"enrolled\","
+                + "\"last_contact\":\"2018-05-04 10:30:00\",\"last_report\":null,\"is_online\":1,"
+                + "\"certificate\":\"" + certificate + "\",\"mqttpasswd\":\"c2VjcmV0LXBhc3N3b3Jk\","
+                + "\"topic\":\"/0/agent/1234567890\",\"broker\":\"demo.flyve.org\",\"port\":8883,\"tls\":1,"
+                + "\"api_token\":\"aD9kR2n4tP7qW1xZ\",\"links\":[{\"rel\":\"Computer\",\"href\":\"https://demo.flyve.org/glpi/apirest.php/Computer/34\"},"
+                + "{\"rel\":\"Entity\",\"href\":\"https://demo.flyve.org/glpi/apirest.php/Entity/0\"}]}";
+    }
+}
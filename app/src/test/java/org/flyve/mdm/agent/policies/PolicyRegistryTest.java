@@ -0,0 +1,87 @@
+/*
+ * Copyright Teclib. All rights reserved.
+ *
+ * Flyve MDM is a mobile device management software.
+ *
+ * Flyve MDM is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Flyve MDM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * ------------------------------------------------------------------------------
+ * @author    Rafael Hernandez
+ * @copyright Copyright Teclib. All rights reserved.
+ * @license   GPLv3 https://www.gnu.org/licenses/gpl-3.0.html
+ * @link      https://github.com/flyve-mdm/android-mdm-agent
+ * @link      https://flyve-mdm.com
+ * ------------------------------------------------------------------------------
+ */
+
+package org.flyve.mdm.agent.policies;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The registry is written by hand, every policy in the package must be in it
+ * with one handler for each class that uses the same POLICY_NAME
+ */
+public class PolicyRegistryTest {
+
+    private static final String PACKAGE = PolicyRegistry.class.getPackage().getName();
+
+    @Test
+    public void everyPolicyIsRegistered() throws Exception {
+        Map<String, Integer> handlers = new HashMap<>();
+
+        ClassLoader loader = PolicyRegistry.class.getClassLoader();
+        Enumeration<URL> folders = loader.getResources(PACKAGE.replace('.', '/'));
+        while (folders.hasMoreElements()) {
+            URL folder = folders.nextElement();
+            if (!"file".equals(folder.getProtocol())) {
+                continue;
+            }
+
+            File[] files = new File(URLDecoder.decode(folder.getPath(), "UTF-8")).listFiles();
+            if (files == null) {
+                continue;
+            }
+
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(".class") || name.contains("$")) {
+                    continue;
+                }
+
+                Class<?> type = Class.forName(PACKAGE + "." + name.substring(0, name.length() - ".class".length()), false, loader);
+                if (!BasePolicies.class.isAssignableFrom(type) || Modifier.isAbstract(type.getModifiers())) {
+                    continue;
+                }
+
+                String policyName = (String) type.getField("POLICY_NAME").get(null);
+                Integer count = handlers.get(policyName);
+                handlers.put(policyName, count == null ? 1 : count + 1);
+            }
+        }
+
+        assertTrue("no policy found in " + PACKAGE, handlers.size() > 0);
+
+        for (Map.Entry<String, Integer> entry : handlers.entrySet()) {
+            assertEquals("handlers of " + entry.getKey(), entry.getValue().intValue(), PolicyRegistry.get(entry.getKey()).size());
+        }
+    }
+}